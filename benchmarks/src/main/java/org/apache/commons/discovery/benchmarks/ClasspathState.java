@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.benchmarks;
+
+import org.apache.commons.discovery.resource.ClassLoaders;
+import org.apache.commons.discovery.test.SyntheticClasspath;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Shared benchmark state: a {@link SyntheticClasspath} of {@link BenchmarkService}
+ * providers, sized by the <code>jars</code>, <code>depth</code> and
+ * <code>providers</code> parameters.
+ */
+@State(Scope.Benchmark)
+public class ClasspathState {
+
+    @Param({ "10", "100" })
+    public int jars;
+
+    @Param({ "4" })
+    public int depth;
+
+    @Param({ "1" })
+    public int providers;
+
+    public SyntheticClasspath classpath;
+
+    /**
+     * The innermost loader of the synthetic classpath.
+     */
+    public ClassLoaders loaders;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        classpath = new SyntheticClasspath(BenchmarkService.class, jars, depth, providers);
+        loaders = classpath.getClassLoaders();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        classpath.dispose();
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.benchmarks;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Per thread state: sets the thread context class loader to a private,
+ * empty, child of the synthetic classpath, so that every thread has its
+ * own environment in the discovery caches.
+ */
+@State(Scope.Thread)
+public class ContextState {
+
+    public ClassLoader contextLoader;
+
+    private ClassLoader previous;
+
+    @Setup(Level.Trial)
+    public void setUp(ClasspathState state) {
+        contextLoader = new URLClassLoader(new URL[0], state.classpath.getLeafLoader());
+        previous = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(contextLoader);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Thread.currentThread().setContextClassLoader(previous);
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.discovery.tools.DiscoverClass;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <code>DiscoverClass.find</code> over the synthetic classpath,
+ * with and without the cache of resolved classes.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiscoverClassBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean cacheResolvedClasses;
+
+    private DiscoverClass discoverClass;
+
+    @Setup
+    public void setUp(ClasspathState state) {
+        DiscoverClass.setCacheResolvedClasses(cacheResolvedClasses);
+        discoverClass = new DiscoverClass(state.loaders);
+    }
+
+    @TearDown
+    public void tearDown() {
+        DiscoverClass.setCacheResolvedClasses(false);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Class<?> find() {
+        return discoverClass.find(BenchmarkService.class);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public Class<?> findContended() {
+        return discoverClass.find(BenchmarkService.class);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.discovery.ResourceNameIterator;
+import org.apache.commons.discovery.resource.names.DiscoverNamesInFile;
+import org.apache.commons.discovery.resource.names.ServiceNamesCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <code>DiscoverNamesInFile.findResourceNames</code>: finds and parses
+ * the services file of every jar of the synthetic classpath,
+ * with and without the cache of parsed files.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiscoverNamesInFileBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean cacheServicesFiles;
+
+    @Setup
+    public void setUp() {
+        ServiceNamesCache.setEnabled(cacheServicesFiles);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ServiceNamesCache.setEnabled(false);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void findResourceNames(ClasspathState state, Blackhole blackhole) {
+        drain(state, blackhole);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void findResourceNamesContended(ClasspathState state, Blackhole blackhole) {
+        drain(state, blackhole);
+    }
+
+    private static void drain(ClasspathState state, Blackhole blackhole) {
+        ResourceNameIterator names = new DiscoverNamesInFile(state.loaders, "META-INF/services/", null)
+            .findResourceNames(BenchmarkService.class.getName());
+        while (names.hasNext()) {
+            blackhole.consume(names.nextResourceName());
+        }
+    }
+
+}
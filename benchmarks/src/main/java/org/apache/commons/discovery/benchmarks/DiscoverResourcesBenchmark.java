@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.discovery.ResourceDiscover;
+import org.apache.commons.discovery.ResourceIterator;
+import org.apache.commons.discovery.resource.ClassLoaders;
+import org.apache.commons.discovery.resource.DiscoverIndexedResources;
+import org.apache.commons.discovery.resource.DiscoverResources;
+import org.apache.commons.discovery.test.SyntheticClasspath;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <code>DiscoverResources.findResources</code>: finds a resource
+ * present in every jar of the synthetic classpath; and the same
+ * lookup answered by a <code>DiscoverIndexedResources</code>.
+ * The <code>overlapping</code> variants search every loader of the
+ * delegation chain, innermost first, as is the case when the thread
+ * context class loader and the library loaders are related; with and
+ * without the delegation aware mode.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiscoverResourcesBenchmark {
+
+    private DiscoverIndexedResources indexed;
+
+    private ClassLoaders overlapping;
+
+    @Setup
+    public void setUp(ClasspathState state) {
+        indexed = new DiscoverIndexedResources(state.loaders);
+        indexed.rebuild();
+
+        overlapping = new ClassLoaders();
+        List<ClassLoader> chain = state.classpath.getLoaders();
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            overlapping.put(chain.get(i), false);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void findResources(ClasspathState state, Blackhole blackhole) {
+        drain(new DiscoverResources(state.loaders), blackhole);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void findResourcesContended(ClasspathState state, Blackhole blackhole) {
+        drain(new DiscoverResources(state.loaders), blackhole);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void findIndexedResources(Blackhole blackhole) {
+        drain(indexed, blackhole);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void findIndexedResourcesContended(Blackhole blackhole) {
+        drain(indexed, blackhole);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void findOverlappingResources(Blackhole blackhole) {
+        drain(new DiscoverResources(overlapping), blackhole);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void findOverlappingResourcesDelegationAware(Blackhole blackhole) {
+        DiscoverResources discover = new DiscoverResources(overlapping);
+        discover.setDelegationAware(true);
+        drain(discover, blackhole);
+    }
+
+    private static void drain(ResourceDiscover discover, Blackhole blackhole) {
+        ResourceIterator resources = discover.findResources(SyntheticClasspath.RESOURCE);
+        while (resources.hasNext()) {
+            blackhole.consume(resources.nextResource());
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.discovery.tools.DiscoverSingleton;
+import org.apache.commons.discovery.tools.SPInterface;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <code>DiscoverSingleton.find</code>: warm (served by the singleton cache)
+ * and cold (the cached singleton is released before every lookup).
+ *
+ * Every thread has its own context class loader, see {@link ContextState}.
+ * Discovery is done over the synthetic classpath, the plain
+ * <code>find(Class)</code> only sees the loaders of the library.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DiscoverSingletonBenchmark {
+
+    private static final SPInterface<BenchmarkService> SPI =
+        new SPInterface<BenchmarkService>(BenchmarkService.class);
+
+    /**
+     * Caches the singleton of the thread context class loader.
+     */
+    @State(Scope.Thread)
+    public static class Primed {
+
+        @Setup
+        public void prime(ContextState context, ClasspathState state) {
+            DiscoverSingleton.find(state.loaders, SPI, null, null);
+        }
+
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BenchmarkService warm(Primed primed) {
+        return DiscoverSingleton.find(BenchmarkService.class);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public BenchmarkService warmContended(Primed primed) {
+        return DiscoverSingleton.find(BenchmarkService.class);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BenchmarkService cold(ContextState context, ClasspathState state) {
+        DiscoverSingleton.release(BenchmarkService.class);
+        return DiscoverSingleton.find(state.loaders, SPI, null, null);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public BenchmarkService coldContended(ContextState context, ClasspathState state) {
+        DiscoverSingleton.release(BenchmarkService.class);
+        return DiscoverSingleton.find(state.loaders, SPI, null, null);
+    }
+
+}
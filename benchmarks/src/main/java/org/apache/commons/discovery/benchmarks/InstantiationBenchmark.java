@@ -0,0 +1,84 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.discovery.tools.ClassUtils;
+import org.apache.commons.discovery.tools.InstanceFactories;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per instance cost of instantiating a provider, with the default and
+ * with a one argument constructor: reflective constructors
+ * (<code>ClassUtils.newInstance</code>), generated factories
+ * (<code>InstanceFactories.newInstance</code>), and plain
+ * <code>new</code> as the baseline.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+@Threads(1)
+public class InstantiationBenchmark {
+
+    private static final Class<?>[] PARAM_CLASSES = { String.class };
+
+    private final Object[] params = { "benchmark" };
+
+    @Benchmark
+    public BenchmarkProvider baseline() {
+        return new BenchmarkProvider();
+    }
+
+    @Benchmark
+    public BenchmarkProvider baselineWithArgument() {
+        return new BenchmarkProvider((String) params[0]);
+    }
+
+    @Benchmark
+    public BenchmarkProvider reflective() throws Exception {
+        return ClassUtils.newInstance(BenchmarkProvider.class, null, null);
+    }
+
+    @Benchmark
+    public BenchmarkProvider reflectiveWithArgument() throws Exception {
+        return ClassUtils.newInstance(BenchmarkProvider.class, PARAM_CLASSES, params);
+    }
+
+    @Benchmark
+    public BenchmarkProvider generated() throws Exception {
+        return InstanceFactories.newInstance(BenchmarkProvider.class, null, null);
+    }
+
+    @Benchmark
+    public BenchmarkProvider generatedWithArgument() throws Exception {
+        return InstanceFactories.newInstance(BenchmarkProvider.class, PARAM_CLASSES, params);
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.benchmarks;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.discovery.tools.ManagedProperties;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * <code>ManagedProperties.getProperty</code> from the leaf of a chain
+ * of <code>depth</code> class loaders, for a property bound to the root
+ * of the chain (the whole chain is walked) and for a missing property.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ManagedPropertiesBenchmark {
+
+    private static final String PROPERTY = "org.apache.commons.discovery.benchmarks.property";
+
+    private static final String MISSING = "org.apache.commons.discovery.benchmarks.missing";
+
+    @Param({ "1", "8", "32" })
+    public int depth;
+
+    private ClassLoader leaf;
+
+    @Setup
+    public void setUp() {
+        ClassLoader root = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        bind(root);
+
+        leaf = root;
+        for (int level = 1; level < depth; level++) {
+            leaf = new URLClassLoader(new URL[0], leaf);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        leaf = null;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String getProperty() {
+        return ManagedProperties.getProperty(leaf, PROPERTY);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String getPropertyContended() {
+        return ManagedProperties.getProperty(leaf, PROPERTY);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String getMissingProperty() {
+        return ManagedProperties.getProperty(leaf, MISSING);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String getMissingPropertyContended() {
+        return ManagedProperties.getProperty(leaf, MISSING);
+    }
+
+    /**
+     * Binds the property to the loader, as the thread context class loader.
+     */
+    private static void bind(ClassLoader loader) {
+        Thread thread = Thread.currentThread();
+        ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(loader);
+        try {
+            ManagedProperties.setProperty(PROPERTY, "value");
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.benchmarks;
+
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.discovery.tools.SPInterface;
+import org.apache.commons.discovery.tools.Service;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * <code>Service.providers</code>: finds, loads and instantiates
+ * the providers listed in every jar of the synthetic classpath.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmark {
+
+    private static final SPInterface<BenchmarkService> SPI =
+        new SPInterface<BenchmarkService>(BenchmarkService.class);
+
+    @Benchmark
+    @Threads(1)
+    public void providers(ClasspathState state, Blackhole blackhole) {
+        drain(state, blackhole);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void providersContended(ClasspathState state, Blackhole blackhole) {
+        drain(state, blackhole);
+    }
+
+    private static void drain(ClasspathState state, Blackhole blackhole) {
+        Enumeration<BenchmarkService> providers = Service.providers(SPI, state.loaders);
+        while (providers.hasMoreElements()) {
+            blackhole.consume(providers.nextElement());
+        }
+    }
+
+}
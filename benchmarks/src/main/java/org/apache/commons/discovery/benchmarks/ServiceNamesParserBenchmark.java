@@ -0,0 +1,117 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.discovery.resource.names.ServiceNamesParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing a services file of <code>providers</code> entries, with comments:
+ * <code>ServiceNamesParser</code> against the former
+ * <code>BufferedReader.readLine</code> based parsing.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ServiceNamesParserBenchmark {
+
+    @Param({ "10", "500" })
+    public int providers;
+
+    private byte[] file;
+
+    @Setup
+    public void setUp() throws IOException {
+        StringBuilder content = new StringBuilder("# Synthetic services file\n");
+        for (int idx = 0; idx < providers; idx++) {
+            content.append("org.apache.commons.discovery.synthetic.Provider").append(idx);
+            content.append((idx % 4 == 0) ? "   # preferred\n" : "\n");
+        }
+        file = content.toString().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<String> parser() throws IOException {
+        return ServiceNamesParser.parse(new ByteArrayInputStream(file));
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<String> parserContended() throws IOException {
+        return ServiceNamesParser.parse(new ByteArrayInputStream(file));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<String> readLine() throws IOException {
+        return readLine(file);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public List<String> readLineContended() throws IOException {
+        return readLine(file);
+    }
+
+    /**
+     * Services file parsing, as done before <code>ServiceNamesParser</code>.
+     */
+    private static List<String> readLine(byte[] file) throws IOException {
+        List<String> results = new ArrayList<String>();
+        BufferedReader rd = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(file), "UTF-8"));
+        try {
+            String serviceImplName;
+            while ((serviceImplName = rd.readLine()) != null) {
+                int idx = serviceImplName.indexOf('#');
+                if (idx >= 0) {
+                    serviceImplName = serviceImplName.substring(0, idx);
+                }
+                serviceImplName = serviceImplName.trim();
+                if (serviceImplName.length() != 0) {
+                    results.add(serviceImplName);
+                }
+            }
+        } finally {
+            rd.close();
+        }
+        return results;
+    }
+
+}
@@ -16,18 +16,36 @@
  */
 package org.apache.commons.discovery.ant;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.StringTokenizer;
 
+import org.apache.commons.discovery.Resource;
+import org.apache.commons.discovery.ResourceIterator;
 import org.apache.commons.discovery.ResourceNameIterator;
 import org.apache.commons.discovery.jdk.JDKHooks;
+import org.apache.commons.discovery.resource.ClassLoaders;
 import org.apache.commons.discovery.resource.DiscoverResources;
+import org.apache.commons.discovery.resource.names.DiscoverNamesInIndex;
+import org.apache.commons.discovery.resource.names.ServiceNamesParser;
 
 /**
  * Small ant task that will use discovery to locate a particular impl.
  * and display all values.
  *
  * You can execute this and save it with an id, then other classes can use it.
+ *
+ * When an index file is set, the task also writes a service index, read at
+ * runtime by {@link DiscoverNamesInIndex}: the provider class names of each
+ * indexed service (see {@link #setServiceNames(String)}), in discovery order,
+ * with the jar or directory they have been found in.
  */
 public class ServiceDiscoveryTask {
 
@@ -37,6 +55,10 @@ public class ServiceDiscoveryTask {
 
     String[] drivers = null;
 
+    List<String> serviceNames = null;
+
+    File indexFile = null;
+
     /**
      * Sets the service name has to be discovered.
      *
@@ -55,6 +77,33 @@ public class ServiceDiscoveryTask {
         this.debug=i;
     }
 
+    /**
+     * Sets the services to be indexed, a comma or whitespace separated list;
+     * by default the service name is indexed.
+     *
+     * @param names The services to be indexed
+     * @since 0.6
+     */
+    public void setServiceNames(String names) {
+        serviceNames = new LinkedList<String>();
+        StringTokenizer tokens = new StringTokenizer(names, ", \t\r\n");
+        while (tokens.hasMoreTokens()) {
+            serviceNames.add(tokens.nextToken());
+        }
+    }
+
+    /**
+     * Sets the service index file to be written, typically
+     * <code>META-INF/discovery.idx</code> in the classes directory;
+     * no index is written by default.
+     *
+     * @param file The service index file
+     * @since 0.6
+     */
+    public void setIndexFile(File file) {
+        this.indexFile = file;
+    }
+
     /**
      * Returns the discovered SPIs name.
      *
@@ -89,6 +138,90 @@ public class ServiceDiscoveryTask {
 
         drivers = new String[resources.size()];
         resources.toArray(drivers);
+
+        if (indexFile != null) {
+            writeIndex();
+        }
+    }
+
+    /**
+     * Writes the service index.
+     *
+     * @throws IOException if the index cannot be written
+     */
+    private void writeIndex() throws IOException {
+        // same loaders as execute(), without duplicates
+        ClassLoaders loaders = new ClassLoaders();
+        loaders.put(JDKHooks.getJDKHooks().getThreadContextClassLoader());
+        loaders.put(this.getClass().getClassLoader(), true);
+        loaders.put(DiscoverResources.class.getClassLoader(), true);
+        loaders.put(JDKHooks.getJDKHooks().getSystemClassLoader(), true);
+        DiscoverResources disc = new DiscoverResources(loaders);
+
+        List<String> services = serviceNames;
+        if (services == null) {
+            services = new LinkedList<String>();
+            if (name != null) {
+                services.add(name);
+            }
+        }
+
+        File dir = indexFile.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create directory " + dir);
+        }
+
+        Writer out = new OutputStreamWriter(new FileOutputStream(indexFile), "UTF-8");
+        try {
+            out.write("# commons-discovery service index\n");
+            for (String service : services) {
+                String servicesFile = "META-INF/services/" + service;
+                out.write(DiscoverNamesInIndex.SERVICE + " " + service + "\n");
+
+                int count = 0;
+                ResourceIterator files = disc.findResources(servicesFile);
+                while (files.hasNext()) {
+                    Resource file = files.nextResource();
+                    String url = file.getResource().toExternalForm();
+                    String source = url.endsWith(servicesFile)
+                                    ? url.substring(0, url.length() - servicesFile.length())
+                                    : url;
+
+                    for (String provider : readServices(file)) {
+                        out.write(DiscoverNamesInIndex.PROVIDER + " " + provider + " " + source + "\n");
+                        count++;
+                    }
+                }
+
+                if (debug > 0) {
+                    System.out.printf("Indexed %d provider(s) of '%s'%n", count, service);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        System.out.printf("Wrote service index '%s'%n", indexFile);
+    }
+
+    /**
+     * Reads the provider class names of a services file.
+     *
+     * @param file The services file
+     * @return The provider class names
+     * @throws IOException if the file cannot be read
+     */
+    private static List<String> readServices(Resource file) throws IOException {
+        InputStream is = file.getResourceAsStream();
+        if (is == null) {
+            return Collections.emptyList();
+        }
+
+        try {
+            return ServiceNamesParser.parse(is);
+        } finally {
+            is.close();
+        }
     }
 
 }
@@ -171,6 +171,9 @@ public class JDK12Hooks extends JDKHooks {
      * @return A new resources URL enumeration
      */
     private static Enumeration<URL> getResourcesFromUrl(final URL first, final Enumeration<URL> rest) {
+        // compared by identity string: URL.equals may resolve host names
+        final String firstIdentity = (first == null) ? null : URLIdentity.of(first);
+
         return new Enumeration<URL>() {
 
             private boolean firstDone = (first == null);
@@ -209,9 +212,9 @@ public class JDK12Hooks extends JDKHooks {
                     n = null;
                     while (rest.hasMoreElements()  &&  n == null) {
                         n = rest.nextElement();
-                        if (first != null &&
+                        if (firstIdentity != null &&
                             n != null &&
-                            n.equals(first))
+                            firstIdentity.equals(URLIdentity.of(n)))
                         {
                             n = null;
                         }
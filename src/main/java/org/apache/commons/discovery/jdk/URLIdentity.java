@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.jdk;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Locale;
+
+/**
+ * Network-free identity of URLs.
+ *
+ * <code>URL.equals</code> and <code>URL.hashCode</code> resolve host names,
+ * so comparing or hashing <code>http:</code> or <code>jar:http:</code> URLs
+ * may block on DNS lookups. Discovery compares URLs by their identity
+ * string instead: the external form, with the protocol and host in lower
+ * case and the default port dropped, nested <code>jar:</code> URLs included.
+ *
+ * Two URLs with the same identity are equal; two equal URLs whose host
+ * names differ but resolve to the same address have different identities.
+ *
+ * @since 0.6
+ */
+public final class URLIdentity {
+
+    private URLIdentity() {
+        // static utility
+    }
+
+    /**
+     * Returns the identity string of the URL, without any network access.
+     *
+     * @param url The URL
+     * @return The identity string of the URL
+     */
+    public static String of(URL url) {
+        String protocol = url.getProtocol().toLowerCase(Locale.ENGLISH);
+
+        if ("jar".equals(protocol)) {
+            String file = url.getFile();
+            int sep = file.indexOf("!/");
+            if (sep > 0) {
+                try {
+                    return "jar:" + of(new URL(file.substring(0, sep))) + file.substring(sep) + ref(url);
+                } catch (MalformedURLException e) {
+                    // fall through, as an opaque URL
+                }
+            }
+        }
+
+        StringBuilder identity = new StringBuilder(protocol).append(':');
+        String host = url.getHost();
+        if (url.getAuthority() != null || (host != null && host.length() > 0)) {
+            identity.append("//");
+            if (url.getUserInfo() != null) {
+                identity.append(url.getUserInfo()).append('@');
+            }
+            if (host != null) {
+                identity.append(host.toLowerCase(Locale.ENGLISH));
+            }
+            int port = url.getPort();
+            if (port != -1 && port != url.getDefaultPort()) {
+                identity.append(':').append(port);
+            }
+        }
+        identity.append(url.getFile());
+        return identity.append(ref(url)).toString();
+    }
+
+    private static String ref(URL url) {
+        return (url.getRef() == null) ? "" : "#" + url.getRef();
+    }
+
+}
@@ -0,0 +1,236 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.jdk;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Concurrent map with weakly referenced keys, compared by identity.
+ *
+ * Intended for keys such as <code>ClassLoader</code> and <code>Class</code>,
+ * which must not be pinned by a cache: once a key has been garbage collected
+ * its entry is swept, on the next update, from a <code>ReferenceQueue</code>.
+ *
+ * The 'null' key is allowed (it stands for the bootstrap class loader)
+ * and is held strongly.
+ *
+ * Values are held strongly: a value that refers back to its own key
+ * keeps the key alive, it is up to the caller to reference such values
+ * weakly.
+ *
+ * Lookups never block and never allocate.
+ *
+ * @param <K> The key type
+ * @param <V> The value type
+ * @since 0.6
+ */
+public final class WeakIdentityMap<K, V> {
+
+    /**
+     * Stands in for the 'null' key.
+     */
+    private static final Object NULL_KEY = new Object();
+
+    private final ConcurrentMap<Object, V> map = new ConcurrentHashMap<Object, V>();
+
+    private final ReferenceQueue<K> queue = new ReferenceQueue<K>();
+
+    /**
+     * Reusable lookup keys, so that reads don't allocate.
+     */
+    private final ThreadLocal<Probe> probes = new ThreadLocal<Probe>() {
+        @Override
+        protected Probe initialValue() {
+            return new Probe();
+        }
+    };
+
+    /**
+     * Returns the value bound to the given key.
+     *
+     * @param key The key, may be null
+     * @return The value bound to the key, null if none
+     */
+    public V get(K key) {
+        if (key == null) {
+            return map.get(NULL_KEY);
+        }
+
+        Probe probe = probes.get().set(key);
+        try {
+            return map.get(probe);
+        } finally {
+            probe.clear();
+        }
+    }
+
+    /**
+     * Binds the value to the given key.
+     *
+     * @param key The key, may be null
+     * @param value The value, not null
+     * @return The value previously bound to the key, null if none
+     */
+    public V put(K key, V value) {
+        expunge();
+        return map.put(newKey(key), value);
+    }
+
+    /**
+     * Binds the value to the given key, unless a value is already bound.
+     *
+     * @param key The key, may be null
+     * @param value The value, not null
+     * @return The value previously bound to the key, null if none
+     */
+    public V putIfAbsent(K key, V value) {
+        expunge();
+        return map.putIfAbsent(newKey(key), value);
+    }
+
+    /**
+     * Removes the value bound to the given key.
+     *
+     * @param key The key, may be null
+     * @return The value previously bound to the key, null if none
+     */
+    public V remove(K key) {
+        if (key == null) {
+            return map.remove(NULL_KEY);
+        }
+
+        Probe probe = probes.get().set(key);
+        try {
+            return map.remove(probe);
+        } finally {
+            probe.clear();
+        }
+    }
+
+    /**
+     * Returns the number of live entries.
+     *
+     * @return The number of live entries
+     */
+    public int size() {
+        expunge();
+        return map.size();
+    }
+
+    /**
+     * Removes all the entries.
+     */
+    public void clear() {
+        map.clear();
+        expunge();
+    }
+
+    /**
+     * Removes the entries whose keys have been garbage collected.
+     */
+    public void expunge() {
+        Reference<? extends K> ref;
+        while ((ref = queue.poll()) != null) {
+            map.remove(ref);
+        }
+    }
+
+    /**
+     * Creates the key to be stored.
+     *
+     * @param key The key, may be null
+     * @return The key to be stored
+     */
+    private Object newKey(K key) {
+        return (key == null) ? NULL_KEY : new WeakKey<K>(key, queue);
+    }
+
+    /**
+     * Stored key: equal to any key or probe with the same referent.
+     * Once cleared, it is only equal to itself.
+     */
+    private static final class WeakKey<K> extends WeakReference<K> {
+
+        private final int hash;
+
+        WeakKey(K referent, ReferenceQueue<K> queue) {
+            super(referent, queue);
+            hash = System.identityHashCode(referent);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+
+            Object referent = get();
+            if (referent == null) {
+                return false;
+            }
+            if (obj instanceof Probe) {
+                return ((Probe) obj).referent == referent;
+            }
+            if (obj instanceof WeakKey) {
+                return ((WeakKey<?>) obj).get() == referent;
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Lookup key, never stored in the map.
+     */
+    private static final class Probe {
+
+        private Object referent;
+
+        private int hash;
+
+        Probe set(Object key) {
+            referent = key;
+            hash = System.identityHashCode(key);
+            return this;
+        }
+
+        void clear() {
+            referent = null;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof WeakKey && ((WeakKey<?>) obj).get() == referent;
+        }
+
+    }
+
+}
@@ -0,0 +1,280 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.log;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Writes the {@link SimpleLog} messages from a background thread.
+ *
+ * Messages are handed over through a bounded ring buffer: logging threads
+ * claim a slot with a compare-and-set, and publish the message by bumping
+ * the slot sequence, the single writer thread consumes the slots in order.
+ * Neither side takes a lock; the writer parks when there is nothing to write.
+ *
+ * When the buffer is full, messages are either dropped, and counted,
+ * or the logging thread waits for a free slot.
+ */
+final class AsyncLogWriter implements Runnable {
+
+    private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long FULL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final PrintStream out;
+
+    private final PrintStream err;
+
+    private final boolean blockWhenFull;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<Message> messages;
+
+    /**
+     * The position each slot expects next: its producer position when free,
+     * the producer position + 1 once published.
+     */
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** The next position to consume, only written by the writer thread. */
+    private long head = 0;
+
+    /** The number of messages consumed and written. */
+    private volatile long written = 0;
+
+    private volatile boolean waiting = false;
+
+    private volatile boolean stopping = false;
+
+    private final Thread thread;
+
+    /**
+     * Creates, and starts, a writer.
+     *
+     * @param out The stream the messages are printed to
+     * @param err The stream the stack traces are printed to
+     * @param capacity The buffer capacity, rounded up to a power of 2
+     * @param blockWhenFull true to wait for a free slot when full, false to drop
+     */
+    AsyncLogWriter(PrintStream out, PrintStream err, int capacity, boolean blockWhenFull) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+
+        this.out = out;
+        this.err = err;
+        this.blockWhenFull = blockWhenFull;
+        this.mask = size - 1;
+        this.messages = new AtomicReferenceArray<Message>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int idx = 0; idx < size; idx++) {
+            sequences.set(idx, idx);
+        }
+
+        thread = new Thread(this, "commons-discovery SimpleLog writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a message.
+     *
+     * @param line The formatted message
+     * @param t The error cause, if any
+     * @return false if the writer is stopped, and the message should be written by the caller
+     */
+    boolean write(String line, Throwable t) {
+        if (stopping) {
+            return false;
+        }
+
+        Message message = new Message(line, t);
+
+        while (!offer(message)) {
+            if (stopping) {
+                return false;
+            }
+            if (!blockWhenFull) {
+                dropped.incrementAndGet();
+                return true;
+            }
+            wakeUp();
+            LockSupport.parkNanos(FULL_NANOS);
+        }
+
+        if (waiting) {
+            wakeUp();
+        }
+        return true;
+    }
+
+    /**
+     * Waits until all the messages queued so far are written.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The timeout unit
+     * @return true if the messages were written in time
+     */
+    boolean flush(long timeout, TimeUnit unit) {
+        long target = tail.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (written < target) {
+            if (!thread.isAlive() || System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            wakeUp();
+            LockSupport.parkNanos(FULL_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Stops the writer, once the messages queued so far are written.
+     *
+     * @param timeout The maximum time to wait
+     * @param unit The timeout unit
+     * @return true if the messages were written in time
+     */
+    boolean stop(long timeout, TimeUnit unit) {
+        stopping = true;
+        wakeUp();
+        try {
+            thread.join(Math.max(1, unit.toMillis(timeout)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !thread.isAlive();
+    }
+
+    /**
+     * Returns the number of messages dropped because the buffer was full.
+     *
+     * @return The number of dropped messages
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public void run() {
+        while (true) {
+            Message message = poll();
+
+            if (message == null) {
+                if (stopping) {
+                    // messages claimed before stop() are published shortly after
+                    if (written == tail.get()) {
+                        break;
+                    }
+                    Thread.yield();
+                    continue;
+                }
+
+                waiting = true;
+                message = poll();
+                if (message == null) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                    waiting = false;
+                    continue;
+                }
+                waiting = false;
+            }
+
+            try {
+                out.println(message.line);
+                if (message.t != null) {
+                    message.t.printStackTrace(err);
+                }
+            } catch (RuntimeException e) {
+                // keep on writing
+            }
+            written = written + 1;
+        }
+
+        out.flush();
+        err.flush();
+    }
+
+    private void wakeUp() {
+        LockSupport.unpark(thread);
+    }
+
+    private boolean offer(Message message) {
+        while (true) {
+            long position = tail.get();
+            int idx = (int) (position & mask);
+            long difference = sequences.get(idx) - position;
+
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    messages.set(idx, message);
+                    sequences.set(idx, position + 1);
+                    return true;
+                }
+            } else if (difference < 0) {
+                // the slot still holds the message of the previous lap
+                return false;
+            }
+            // else another thread claimed the slot, retry
+        }
+    }
+
+    private Message poll() {
+        int idx = (int) (head & mask);
+        if (sequences.get(idx) != head + 1) {
+            return null;
+        }
+
+        Message message = messages.get(idx);
+        messages.set(idx, null);
+        sequences.set(idx, head + mask + 1);
+        head++;
+        return message;
+    }
+
+    /**
+     * A queued message.
+     */
+    private static final class Message {
+
+        final String line;
+
+        final Throwable t;
+
+        Message(String line, Throwable t) {
+            this.line = line;
+            this.t = t;
+        }
+
+    }
+
+}
@@ -20,6 +20,7 @@ import java.io.PrintStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 
@@ -37,6 +38,12 @@ import org.apache.commons.logging.Log;
  * valid values: all, trace, debug, info, warn, error, fatal, off.
  * </p>
  *
+ * <p>Messages may be written from a background thread, see
+ * {@link #setAsynchronous(int, int)}, enabled at startup by the
+ * <code>org.apache.commons.discovery.log.async</code> property.
+ * valid values: drop, block.
+ * </p>
+ *
  * @deprecated Starting from commons-discovery-05, Log is totally delegated to commons-logging
  * @version $Id$
  */
@@ -68,11 +75,37 @@ public class SimpleLog implements Log {
     /** Enable no logging levels */
     public static final int LOG_LEVEL_OFF    = (LOG_LEVEL_FATAL + 1);
 
+    // ---------------------------------------------- Overflow Policy Constants
+
+    /**
+     * Asynchronous logging drops the messages logged while its buffer is full.
+     *
+     * @since 0.6
+     */
+    public static final int OVERFLOW_DROP    = 0;
+
+    /**
+     * Asynchronous logging makes the logging threads wait while its buffer is full.
+     *
+     * @since 0.6
+     */
+    public static final int OVERFLOW_BLOCK   = 1;
+
+    /**
+     * The default capacity of the asynchronous logging buffer.
+     *
+     * @since 0.6
+     */
+    public static final int DEFAULT_ASYNC_CAPACITY = 1024;
+
     // ------------------------------------------------------- Class Attributes
 
     static protected final String PROP_LEVEL =
         "org.apache.commons.discovery.log.level";
 
+    static protected final String PROP_ASYNC =
+        "org.apache.commons.discovery.log.async";
+
     /** Include the instance name in the log message? */
     static protected boolean showLogName = false;
 
@@ -97,6 +130,15 @@ public class SimpleLog implements Log {
      */
     static private PrintStream out = System.out;
 
+    /** The background writer, null when logging synchronously */
+    static private volatile AsyncLogWriter asyncWriter = null;
+
+    /** Stops the background writer, flushing its messages, on shutdown */
+    static private Thread shutdownHook = null;
+
+    /** How long to wait for the background writer to flush its messages */
+    static private final long FLUSH_TIMEOUT_SECONDS = 5;
+
     // ------------------------------------------------------------ Initializer
 
     // initialize class attributes
@@ -126,6 +168,14 @@ public class SimpleLog implements Log {
         } else if("off".equalsIgnoreCase(lvl)) {
             setLevel(SimpleLog.LOG_LEVEL_OFF);
         }
+
+        String async = System.getProperty(PROP_ASYNC);
+
+        if("drop".equalsIgnoreCase(async)) {
+            setAsynchronous(DEFAULT_ASYNC_CAPACITY, OVERFLOW_DROP);
+        } else if("block".equalsIgnoreCase(async)) {
+            setAsynchronous(DEFAULT_ASYNC_CAPACITY, OVERFLOW_BLOCK);
+        }
       } catch (SecurityException ignored) {
       //do nothing. We get here if running discovery
       //under a servlet with restricted security rights, and
@@ -155,6 +205,105 @@ public class SimpleLog implements Log {
         return logLevel;
     }
 
+    /**
+     * <p> Write the log messages from a background thread, handed over
+     * through a bounded buffer, so that logging threads don't wait for
+     * the console. The messages still queued are written on shutdown. </p>
+     *
+     * @param capacity the buffer capacity, rounded up to a power of 2
+     * @param overflowPolicy {@link #OVERFLOW_DROP} or {@link #OVERFLOW_BLOCK},
+     *        what to do when the buffer is full
+     * @since 0.6
+     */
+    public static synchronized void setAsynchronous(int capacity, int overflowPolicy) {
+        if (overflowPolicy != OVERFLOW_DROP && overflowPolicy != OVERFLOW_BLOCK) {
+            throw new IllegalArgumentException("Unknown overflow policy: " + overflowPolicy);
+        }
+
+        setSynchronous();
+
+        asyncWriter = new AsyncLogWriter(out, System.err, capacity, overflowPolicy == OVERFLOW_BLOCK);
+
+        try {
+            shutdownHook = new Thread("commons-discovery SimpleLog shutdown") {
+                @Override
+                public void run() {
+                    AsyncLogWriter writer = asyncWriter;
+                    if (writer != null) {
+                        writer.stop(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    }
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // already shutting down
+            shutdownHook = null;
+        } catch (SecurityException e) {
+            // messages still queued on exit may be lost
+            shutdownHook = null;
+        }
+    }
+
+    /**
+     * <p> Write the log messages from the logging threads, the default,
+     * once the messages queued for the background thread are written. </p>
+     *
+     * @since 0.6
+     */
+    public static synchronized void setSynchronous() {
+        AsyncLogWriter writer = asyncWriter;
+        if (writer == null) {
+            return;
+        }
+
+        asyncWriter = null;
+        writer.stop(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+        if (shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // already shutting down
+            } catch (SecurityException e) {
+                // left registered, does nothing
+            }
+            shutdownHook = null;
+        }
+    }
+
+    /**
+     * Are the log messages written from a background thread?
+     *
+     * @return true, if the log messages are written from a background thread
+     * @since 0.6
+     */
+    public static boolean isAsynchronous() {
+        return asyncWriter != null;
+    }
+
+    /**
+     * Waits until the messages logged so far are written by the background thread.
+     *
+     * @return true, if the messages were written, or are written synchronously
+     * @since 0.6
+     */
+    public static boolean flush() {
+        AsyncLogWriter writer = asyncWriter;
+        return writer == null || writer.flush(FLUSH_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the number of messages dropped by the
+     * background thread because its buffer was full.
+     *
+     * @return The number of dropped messages
+     * @since 0.6
+     */
+    public static long getDroppedCount() {
+        AsyncLogWriter writer = asyncWriter;
+        return (writer == null) ? 0 : writer.getDroppedCount();
+    }
+
     /**
      * Is the given log level currently enabled?
      *
@@ -190,7 +339,8 @@ public class SimpleLog implements Log {
     /**
      * Do the actual logging.
      *
-     * This method assembles the message and then prints to {@code System.err}.
+     * This method assembles the message and then prints to {@code System.err},
+     * or hands it over to the background thread.
      *
      * @param type The logging level
      * @param message The message to log
@@ -238,6 +388,11 @@ public class SimpleLog implements Log {
             buf.append(">");
         }
 
+        AsyncLogWriter writer = asyncWriter;
+        if (writer != null && writer.write(buf.toString(), t)) {
+            return;
+        }
+
         // print to System.err
         out.println(buf.toString());
 
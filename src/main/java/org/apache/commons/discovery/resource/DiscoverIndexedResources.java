@@ -0,0 +1,693 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.resource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import org.apache.commons.discovery.Resource;
+import org.apache.commons.discovery.ResourceDiscover;
+import org.apache.commons.discovery.ResourceIterator;
+import org.apache.commons.discovery.jdk.JDKHooks;
+import org.apache.commons.discovery.jdk.URLIdentity;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Resource discoverer answering from an in-memory index of the jar and
+ * directory entries reachable from the class loaders, instead of asking
+ * every class loader (and so every jar) on each query.
+ *
+ * The index is built on the first query, it maps every entry name to the
+ * jars and directories holding it. Resources are returned in the order
+ * of {@link DiscoverResources}: class loader by class loader, and for each
+ * class loader parents first, then its own class path in search order
+ * (following the <code>Class-Path</code> of jar manifests).
+ *
+ * Only class loaders with a known search path are indexed: plain
+ * <code>URLClassLoader</code>s over <code>file:</code> URLs (subclasses
+ * which do not override resource lookup included) and the JDK application
+ * class loader, when <code>java.class.path</code> is its actual class path.
+ * Any other class loader, and the bootstrap and platform class loaders,
+ * are asked on every query.
+ *
+ * The index is not refreshed automatically: {@link #isStale()} reports
+ * whether an indexed jar or directory has been modified since the index
+ * was built, {@link #rebuild()} rebuilds it.
+ *
+ * @since 0.6
+ */
+public class DiscoverIndexedResources extends ResourceDiscoverImpl implements ResourceDiscover {
+
+    private static Log log = LogFactory.getLog(DiscoverIndexedResources.class);
+
+    /**
+     * Stands in for the bootstrap class loader, to find bootstrap resources.
+     */
+    private static final ClassLoader BOOTSTRAP = new ClassLoader(null) {
+    };
+
+    /**
+     * Sets the {@code Log} for this class.
+     *
+     * @param _log This class {@code Log}
+     * @deprecated This method is not thread-safe
+     */
+    @Deprecated
+    public static void setLog(Log _log) {
+        log = _log;
+    }
+
+    private volatile Index index = null;
+
+    /**
+     * Construct a new resource discoverer.
+     */
+    public DiscoverIndexedResources() {
+        super();
+    }
+
+    /**
+     * Construct a new resource discoverer.
+     *
+     * @param classLoaders The class loaders holder
+     */
+    public DiscoverIndexedResources(ClassLoaders classLoaders) {
+        super(classLoaders);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setClassLoaders(ClassLoaders loaders) {
+        super.setClassLoaders(loaders);
+        index = null;
+    }
+
+    /**
+     * Rebuilds the index from the current class loaders.
+     */
+    public synchronized void rebuild() {
+        index = new Index(snapshot());
+    }
+
+    /**
+     * Check to see if an indexed jar or directory has been modified,
+     * created or deleted since the index was built.
+     *
+     * @return true, if the index no longer matches the file system
+     */
+    public boolean isStale() {
+        Index current = index;
+        return current != null && current.isStale();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResourceIterator findResources(final String resourceName) {
+        if (log.isDebugEnabled()) {
+            log.debug("find: resourceName='" + resourceName + "'");
+        }
+
+        final Index current = getIndex();
+
+        return new ResourceIterator() {
+
+            private int idx = 0;
+
+            private List<Resource> resources = null;
+
+            private int next = 0;
+
+            public boolean hasNext() {
+                if (resources == null || next >= resources.size()) {
+                    resources = getNextResources();
+                    next = 0;
+                }
+                return resources != null;
+            }
+
+            @Override
+            public Resource nextResource() {
+                return hasNext() ? resources.get(next++) : null;
+            }
+
+            private List<Resource> getNextResources() {
+                while (idx < current.loaders.size()) {
+                    List<Resource> found = current.find(idx++, resourceName);
+                    if (!found.isEmpty()) {
+                        return found;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns the index, rebuilt if the class loaders have changed.
+     *
+     * @return The index
+     */
+    private Index getIndex() {
+        Index current = index;
+        if (current == null || !current.isFor(getClassLoaders())) {
+            synchronized (this) {
+                current = index;
+                if (current == null || !current.isFor(getClassLoaders())) {
+                    current = new Index(snapshot());
+                    index = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private List<ClassLoader> snapshot() {
+        ClassLoaders classLoaders = getClassLoaders();
+        List<ClassLoader> loaders = new ArrayList<ClassLoader>(classLoaders.size());
+        for (int idx = 0; idx < classLoaders.size(); idx++) {
+            loaders.add(classLoaders.get(idx));
+        }
+        return loaders;
+    }
+
+    /**
+     * The index of a set of class loaders.
+     */
+    private static final class Index {
+
+        final List<ClassLoader> loaders;
+
+        /**
+         * Search path of each class loader, parents first.
+         */
+        private final List<SearchPath> paths = new ArrayList<SearchPath>();
+
+        /**
+         * Entry name (without trailing '/') -> sources holding it.
+         */
+        private final Map<String, List<Source>> entries = new HashMap<String, List<Source>>();
+
+        private final Map<String, Source> sources = new HashMap<String, Source>();
+
+        private final Map<ClassLoader, SearchPath> loaderPaths = new IdentityHashMap<ClassLoader, SearchPath>();
+
+        /**
+         * Files (jars and directories) and their modification time when indexed.
+         */
+        private final Map<File, Long> stamps = new HashMap<File, Long>();
+
+        Index(List<ClassLoader> loaders) {
+            this.loaders = loaders;
+            for (ClassLoader loader : loaders) {
+                paths.add(pathOf(loader));
+            }
+        }
+
+        boolean isFor(ClassLoaders classLoaders) {
+            if (classLoaders.size() != loaders.size()) {
+                return false;
+            }
+            for (int idx = 0; idx < loaders.size(); idx++) {
+                if (classLoaders.get(idx) != loaders.get(idx)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        boolean isStale() {
+            for (Map.Entry<File, Long> stamp : stamps.entrySet()) {
+                if (stamp.getKey().lastModified() != stamp.getValue().longValue()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Finds the resources of the class loader at position <code>idx</code>.
+         */
+        List<Resource> find(int idx, String resourceName) {
+            ClassLoader loader = loaders.get(idx);
+
+            List<URL> urls = urls(paths.get(idx), resourceName);
+            List<Resource> resources = new ArrayList<Resource>(urls.size());
+            for (URL url : urls) {
+                if (log.isDebugEnabled()) {
+                    log.debug("find: next URL='" + url + "'");
+                }
+                resources.add(new Resource(resourceName, url, loader));
+            }
+            return resources;
+        }
+
+        /**
+         * Finds the URLs of a resource along a search path.
+         */
+        private List<URL> urls(SearchPath path, String resourceName) {
+            List<URL> urls = new ArrayList<URL>();
+            if (path.delegate != null) {
+                try {
+                    Enumeration<URL> found = JDKHooks.getJDKHooks().getResources(path.delegate, resourceName);
+                    while (found.hasMoreElements()) {
+                        urls.add(found.nextElement());
+                    }
+                } catch (IOException e) {
+                    log.warn("find: Ignoring Exception", e);
+                }
+            }
+
+            // as JDKHooks.getResources: drop the duplicates of the first resource
+            List<URL> indexed = indexedURLs(path, resourceName);
+            if (urls.isEmpty()) {
+                return indexed;
+            }
+            String first = URLIdentity.of(urls.get(0));
+            for (URL url : indexed) {
+                if (!first.equals(URLIdentity.of(url))) {
+                    urls.add(url);
+                }
+            }
+            return urls;
+        }
+
+        /**
+         * Returns the URLs of a resource in the indexed sources of a search path.
+         */
+        private List<URL> indexedURLs(SearchPath path, String resourceName) {
+            List<URL> urls = path.urls.get(resourceName);
+            if (urls != null) {
+                return urls;
+            }
+
+            urls = new ArrayList<URL>();
+            String key = trimSlash(resourceName);
+            List<Source> holders = entries.get(key);
+            if (holders != null && key.length() > 0) {
+                Source[] ordered = new Source[path.sources.size()];
+                for (Source source : holders) {
+                    Integer position = path.positions.get(source);
+                    if (position != null) {
+                        ordered[position.intValue()] = source;
+                    }
+                }
+                for (Source source : ordered) {
+                    if (source == null) {
+                        continue;
+                    }
+                    try {
+                        urls.add(source.getURL(resourceName));
+                    } catch (MalformedURLException e) {
+                        log.warn("find: Ignoring Exception", e);
+                    }
+                }
+            }
+
+            // only names found in the index are remembered
+            if (!urls.isEmpty()) {
+                urls = Collections.unmodifiableList(urls);
+                path.urls.putIfAbsent(resourceName, urls);
+            }
+            return urls;
+        }
+
+        /**
+         * Check to see if a search path finds the same manifests
+         * as the class loader itself.
+         */
+        private boolean matches(SearchPath path, ClassLoader loader) {
+            List<String> expected = new ArrayList<String>();
+            try {
+                Enumeration<URL> found = JDKHooks.getJDKHooks().getResources(loader, JarFile.MANIFEST_NAME);
+                while (found.hasMoreElements()) {
+                    expected.add(URLIdentity.of(found.nextElement()));
+                }
+            } catch (IOException e) {
+                return false;
+            }
+
+            List<String> actual = new ArrayList<String>();
+            for (URL url : urls(path, JarFile.MANIFEST_NAME)) {
+                actual.add(URLIdentity.of(url));
+            }
+            return expected.equals(actual);
+        }
+
+        /**
+         * Returns the search path of the class loader: the class loader
+         * asked for its (and its parents) resources, if any, followed by
+         * the indexed sources.
+         */
+        private SearchPath pathOf(ClassLoader loader) {
+            SearchPath path = loaderPaths.get(loader);
+            if (path != null) {
+                return path;
+            }
+
+            List<URL> own = ownURLs(loader);
+            if (own == null) {
+                path = new SearchPath(loader);
+            } else {
+                ClassLoader parent = loader.getParent();
+                SearchPath parentPath = (parent == null) ? new SearchPath(BOOTSTRAP) : pathOf(parent);
+                path = new SearchPath(parentPath);
+                LinkedList<URL> pending = new LinkedList<URL>(own);
+                Set<String> seen = new HashSet<String>();
+                while (!pending.isEmpty()) {
+                    URL url = pending.removeFirst();
+                    String external = URLIdentity.of(url);
+                    if (!seen.add(external)) {
+                        continue;
+                    }
+
+                    Source source = sources.get(external);
+                    if (source == null) {
+                        source = index(url);
+                        if (source == null) {
+                            continue;
+                        }
+                        sources.put(external, source);
+                    }
+                    path.add(source);
+                    // manifest Class-Path entries are searched right after their jar
+                    pending.addAll(0, source.classPath);
+                }
+
+                if (!(loader instanceof URLClassLoader) && !matches(path, loader)) {
+                    // 'java.class.path' is not the actual class path (e.g. a launcher jar)
+                    if (log.isDebugEnabled()) {
+                        log.debug("pathOf: not indexing '" + loader + "'");
+                    }
+                    path = new SearchPath(loader);
+                }
+            }
+
+            loaderPaths.put(loader, path);
+            return path;
+        }
+
+        /**
+         * Returns the URLs the class loader itself searches, null if unknown.
+         */
+        private static List<URL> ownURLs(ClassLoader loader) {
+            if (loader instanceof URLClassLoader && !overridesLookup(loader.getClass())) {
+                URL[] urls = ((URLClassLoader) loader).getURLs();
+                for (URL url : urls) {
+                    if (!"file".equals(url.getProtocol())) {
+                        return null;
+                    }
+                }
+                List<URL> list = new ArrayList<URL>(urls.length);
+                Collections.addAll(list, urls);
+                return list;
+            }
+
+            if (loader == JDKHooks.getJDKHooks().getSystemClassLoader()
+                    && loader.getClass().getName().startsWith("jdk.internal.loader.")) {
+                String classPath = JDKHooks.getJDKHooks().getSystemProperty("java.class.path");
+                if (classPath == null) {
+                    return null;
+                }
+                List<URL> list = new ArrayList<URL>();
+                StringTokenizer tokens = new StringTokenizer(classPath, File.pathSeparator);
+                while (tokens.hasMoreTokens()) {
+                    try {
+                        list.add(new File(tokens.nextToken()).getCanonicalFile().toURI().toURL());
+                    } catch (IOException e) {
+                        return null;
+                    }
+                }
+                return list;
+            }
+
+            return null;
+        }
+
+        private static boolean overridesLookup(Class<?> loaderClass) {
+            if (loaderClass == URLClassLoader.class) {
+                return false;
+            }
+            try {
+                return declaredBelowURLClassLoader(loaderClass.getMethod("getResource", String.class))
+                    || declaredBelowURLClassLoader(loaderClass.getMethod("getResources", String.class))
+                    || declaredBelowURLClassLoader(loaderClass.getMethod("findResource", String.class))
+                    || declaredBelowURLClassLoader(loaderClass.getMethod("findResources", String.class));
+            } catch (NoSuchMethodException e) {
+                return true;
+            }
+        }
+
+        private static boolean declaredBelowURLClassLoader(Method method) {
+            Class<?> declaring = method.getDeclaringClass();
+            return declaring != URLClassLoader.class && URLClassLoader.class.isAssignableFrom(declaring);
+        }
+
+        /**
+         * Indexes the entries of a jar or directory.
+         *
+         * @return The source, null if it does not exist
+         */
+        private Source index(URL url) {
+            File file;
+            try {
+                file = new File(url.toURI());
+            } catch (URISyntaxException e) {
+                file = new File(url.getPath());
+            } catch (IllegalArgumentException e) {
+                file = new File(url.getPath());
+            }
+
+            // a missing jar or directory may appear later
+            stamps.put(file, Long.valueOf(file.lastModified()));
+
+            Source source;
+            if (file.isDirectory()) {
+                String base = url.toExternalForm();
+                source = new Source(base.endsWith("/") ? base : base + "/");
+                indexDirectory(source, file, "");
+            } else if (file.isFile()) {
+                source = new Source("jar:" + url.toExternalForm() + "!/");
+                try {
+                    indexJar(source, url, file);
+                } catch (IOException e) {
+                    log.warn("index: Ignoring unreadable jar " + file, e);
+                    return null;
+                }
+            } else {
+                return null;
+            }
+
+            if (log.isDebugEnabled()) {
+                log.debug("index: indexed '" + url + "'");
+            }
+            return source;
+        }
+
+        private void indexDirectory(Source source, File directory, String prefix) {
+            File[] files = directory.listFiles();
+            if (files == null) {
+                return;
+            }
+            for (File file : files) {
+                String name = prefix + file.getName();
+                add(name, source);
+                if (file.isDirectory()) {
+                    stamps.put(file, Long.valueOf(file.lastModified()));
+                    indexDirectory(source, file, name + "/");
+                }
+            }
+        }
+
+        private void indexJar(Source source, URL url, File file) throws IOException {
+            JarFile jar = new JarFile(file);
+            try {
+                for (Enumeration<? extends ZipEntry> jarEntries = jar.entries(); jarEntries.hasMoreElements();) {
+                    add(trimSlash(jarEntries.nextElement().getName()), source);
+                }
+
+                Manifest manifest = jar.getManifest();
+                String classPath = (manifest == null)
+                                   ? null
+                                   : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+                if (classPath != null) {
+                    StringTokenizer tokens = new StringTokenizer(classPath);
+                    while (tokens.hasMoreTokens()) {
+                        URL entry = new URL(url, tokens.nextToken());
+                        if ("file".equals(entry.getProtocol())) {
+                            source.classPath.add(entry);
+                        }
+                    }
+                }
+            } finally {
+                jar.close();
+            }
+        }
+
+        private void add(String name, Source source) {
+            List<Source> holders = entries.get(name);
+            if (holders == null) {
+                holders = new ArrayList<Source>(1);
+                entries.put(name, holders);
+            }
+            if (!holders.contains(source)) {
+                holders.add(source);
+            }
+        }
+
+    }
+
+    /**
+     * Search path of a class loader.
+     */
+    private static final class SearchPath {
+
+        /**
+         * Class loader asked first for its resources, null if none.
+         */
+        final ClassLoader delegate;
+
+        /**
+         * Indexed sources, in search order.
+         */
+        final List<Source> sources = new ArrayList<Source>();
+
+        /**
+         * Source -> position in <code>sources</code>.
+         */
+        final Map<Source, Integer> positions = new IdentityHashMap<Source, Integer>();
+
+        /**
+         * Resource name -> URLs in the indexed sources, built on demand.
+         */
+        final ConcurrentMap<String, List<URL>> urls = new ConcurrentHashMap<String, List<URL>>();
+
+        SearchPath(ClassLoader delegate) {
+            this.delegate = delegate;
+        }
+
+        SearchPath(SearchPath parent) {
+            this.delegate = parent.delegate;
+            for (Source source : parent.sources) {
+                add(source);
+            }
+        }
+
+        void add(Source source) {
+            if (!positions.containsKey(source)) {
+                positions.put(source, Integer.valueOf(sources.size()));
+                sources.add(source);
+            }
+        }
+
+    }
+
+    /**
+     * An indexed jar or directory.
+     */
+    private static final class Source {
+
+        /**
+         * Resource URL prefix.
+         */
+        private final String base;
+
+        /**
+         * Manifest Class-Path entries.
+         */
+        final List<URL> classPath = new ArrayList<URL>();
+
+        Source(String base) {
+            this.base = base;
+        }
+
+        URL getURL(String resourceName) throws MalformedURLException {
+            return new URL(base + encode(resourceName));
+        }
+
+    }
+
+    private static String trimSlash(String name) {
+        int end = name.length();
+        while (end > 0 && name.charAt(end - 1) == '/') {
+            end--;
+        }
+        return name.substring(0, end);
+    }
+
+    /**
+     * Percent-encodes the characters of a resource name not allowed
+     * in a URL path, as <code>URLClassLoader</code> does.
+     */
+    private static String encode(String name) {
+        StringBuilder encoded = null;
+        for (int idx = 0; idx < name.length();) {
+            int c = name.codePointAt(idx);
+            int next = idx + Character.charCount(c);
+            boolean allowed = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                              || (c < 0x80 && "/-_.!~*'()$+,;:@&=".indexOf(c) >= 0);
+            if (allowed) {
+                if (encoded != null) {
+                    encoded.append((char) c);
+                }
+                idx = next;
+                continue;
+            }
+            if (encoded == null) {
+                encoded = new StringBuilder(name.length() + 16).append(name, 0, idx);
+            }
+            try {
+                for (byte b : name.substring(idx, next).getBytes("UTF-8")) {
+                    encoded.append('%').append(Character.toUpperCase(Character.forDigit((b >> 4) & 0xF, 16)))
+                           .append(Character.toUpperCase(Character.forDigit(b & 0xF, 16)));
+                }
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+            idx = next;
+        }
+        return (encoded == null) ? name : encoded.toString();
+    }
+
+}
@@ -18,16 +18,45 @@ package org.apache.commons.discovery.resource;
 
 import java.io.IOException;
 import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.commons.discovery.Resource;
 import org.apache.commons.discovery.ResourceDiscover;
 import org.apache.commons.discovery.ResourceIterator;
 import org.apache.commons.discovery.jdk.JDKHooks;
+import org.apache.commons.discovery.jdk.URLIdentity;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 /**
- * 
+ * The findResources() method will check every loader.
+ *
+ * In the delegation aware mode (see {@link #setDelegationAware(boolean)})
+ * class loaders related by parent-first delegation are not searched twice:
+ * a class loader which is an ancestor of a class loader already searched
+ * is skipped, and for a descendant only the loaders below the one already
+ * searched are asked for their own resources. Duplicate resources are
+ * dropped, the order of the remaining ones is unchanged.
+ *
+ * In the parallel mode (see {@link #setExecutor(Executor)}) every class
+ * loader is searched at once, on the given executor; the resources are
+ * still returned in the order of the class loaders, and a class loader
+ * that does not answer in time (see {@link #setTimeout(long, TimeUnit)})
+ * is skipped.
  */
 public class DiscoverResources extends ResourceDiscoverImpl implements ResourceDiscover {
 
@@ -44,6 +73,15 @@ public class DiscoverResources extends ResourceDiscoverImpl implements ResourceD
         log = _log;
     }
 
+    private boolean delegationAware = false;
+
+    private Executor executor = null;
+
+    /**
+     * Time to wait for a class loader, in nanoseconds; 0 to wait indefinitely.
+     */
+    private long timeout = 0;
+
     /**
      * Construct a new resource discoverer.
      */
@@ -60,6 +98,76 @@ public class DiscoverResources extends ResourceDiscoverImpl implements ResourceD
         super(classLoaders);
     }
 
+    /**
+     * Sets whether class loaders related by delegation are searched once,
+     * and duplicate resources dropped; disabled by default.
+     *
+     * @param delegationAware true, to search related class loaders once
+     * @since 0.6
+     */
+    public void setDelegationAware(boolean delegationAware) {
+        this.delegationAware = delegationAware;
+    }
+
+    /**
+     * Returns true if class loaders related by delegation are searched once.
+     *
+     * @return true if class loaders related by delegation are searched once
+     * @since 0.6
+     */
+    public boolean isDelegationAware() {
+        return delegationAware;
+    }
+
+    /**
+     * Sets the executor the class loaders are searched on, in parallel;
+     * <code>null</code>, the default, to search them one after another.
+     *
+     * The delegation aware mode, which depends on the class loaders
+     * searched before, takes precedence over the parallel one.
+     *
+     * @param executor The executor, may be null
+     * @since 0.6
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the executor the class loaders are searched on.
+     *
+     * @return The executor, null if the class loaders are searched one after another
+     * @since 0.6
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Sets how long, in the parallel mode, the iteration waits for the
+     * resources of a class loader before skipping it.
+     * A zero or negative timeout, the default, waits indefinitely.
+     *
+     * @param duration The time to wait for a class loader
+     * @param unit The time unit of <code>duration</code>
+     * @since 0.6
+     */
+    public void setTimeout(long duration, TimeUnit unit) {
+        timeout = (duration > 0) ? unit.toNanos(duration) : 0;
+    }
+
+    /**
+     * Returns how long, in the parallel mode, the iteration waits for the
+     * resources of a class loader.
+     *
+     * @param unit The time unit of the result
+     * @return The time to wait for a class loader, 0 to wait indefinitely
+     * @since 0.6
+     */
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(timeout, TimeUnit.NANOSECONDS);
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -69,6 +177,14 @@ public class DiscoverResources extends ResourceDiscoverImpl implements ResourceD
             log.debug("find: resourceName='" + resourceName + "'");
         }
 
+        if (delegationAware) {
+            return new DelegationAwareIterator(resourceName);
+        }
+
+        if (executor != null) {
+            return new ParallelIterator(resourceName, executor, timeout);
+        }
+
         return new ResourceIterator() {
 
             private int idx = 0;
@@ -134,4 +250,219 @@ public class DiscoverResources extends ResourceDiscoverImpl implements ResourceD
         };
     }
 
+    /**
+     * Searches every class loader once, see {@link #setDelegationAware(boolean)}.
+     */
+    private final class DelegationAwareIterator extends ResourceIterator {
+
+        private final String resourceName;
+
+        /**
+         * Class loaders whose own resources have been searched.
+         */
+        private final Map<ClassLoader, Boolean> searched = new IdentityHashMap<ClassLoader, Boolean>();
+
+        /**
+         * Identities of the resources found, see {@link URLIdentity}.
+         */
+        private final Set<String> found = new HashSet<String>();
+
+        private int idx = 0;
+
+        private final LinkedList<Resource> pending = new LinkedList<Resource>();
+
+        DelegationAwareIterator(String resourceName) {
+            this.resourceName = resourceName;
+        }
+
+        public boolean hasNext() {
+            while (pending.isEmpty() && idx < getClassLoaders().size()) {
+                search(getClassLoaders().get(idx++));
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public Resource nextResource() {
+            return hasNext() ? pending.removeFirst() : null;
+        }
+
+        private void search(ClassLoader loader) {
+            // the loaders to search, up to the first one already searched
+            List<ClassLoader> chain = new ArrayList<ClassLoader>();
+            boolean rooted = false;
+            for (ClassLoader current = loader; current != null; current = current.getParent()) {
+                if (searched.containsKey(current)) {
+                    rooted = true;
+                    break;
+                }
+                chain.add(current);
+            }
+
+            if (chain.isEmpty()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("search: skipping ClassLoader '" + loader + "', already searched");
+                }
+                return;
+            }
+
+            try {
+                if (rooted && ownResourcesOnly(chain)) {
+                    // parents first, as delegation does
+                    for (int i = chain.size() - 1; i >= 0; i--) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("search: own resources of ClassLoader '" + chain.get(i) + "'");
+                        }
+                        add(((URLClassLoader) chain.get(i)).findResources(resourceName), loader);
+                    }
+                } else {
+                    if (log.isDebugEnabled()) {
+                        log.debug("search: search using ClassLoader '" + loader + "'");
+                    }
+                    add(JDKHooks.getJDKHooks().getResources(loader, resourceName), loader);
+                }
+            } catch (IOException ex) {
+                log.warn("search: Ignoring Exception", ex);
+            }
+
+            for (ClassLoader current : chain) {
+                searched.put(current, Boolean.TRUE);
+            }
+        }
+
+        private void add(Enumeration<URL> urls, ClassLoader loader) {
+            while (urls != null && urls.hasMoreElements()) {
+                URL url = urls.nextElement();
+                if (found.add(URLIdentity.of(url))) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("add: next URL='" + url + "'");
+                    }
+                    pending.add(new Resource(resourceName, url, loader));
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Searches every class loader at once, see {@link #setExecutor(Executor)}.
+     */
+    private final class ParallelIterator extends ResourceIterator {
+
+        private final String resourceName;
+
+        private final long timeout;
+
+        private final List<ClassLoader> loaders = new ArrayList<ClassLoader>();
+
+        private final List<FutureTask<List<URL>>> searches = new ArrayList<FutureTask<List<URL>>>();
+
+        private int idx = 0;
+
+        private final LinkedList<Resource> pending = new LinkedList<Resource>();
+
+        ParallelIterator(final String resourceName, Executor executor, long timeout) {
+            this.resourceName = resourceName;
+            this.timeout = timeout;
+
+            for (int i = 0; i < getClassLoaders().size(); i++) {
+                final ClassLoader loader = getClassLoaders().get(i);
+                FutureTask<List<URL>> search = new FutureTask<List<URL>>(new Callable<List<URL>>() {
+                    public List<URL> call() throws IOException {
+                        // drained here, lazy enumerations would search on the caller thread
+                        List<URL> urls = new ArrayList<URL>();
+                        Enumeration<URL> e = JDKHooks.getJDKHooks().getResources(loader, resourceName);
+                        while (e != null && e.hasMoreElements()) {
+                            urls.add(e.nextElement());
+                        }
+                        return urls;
+                    }
+                });
+
+                loaders.add(loader);
+                searches.add(search);
+                try {
+                    executor.execute(search);
+                } catch (RejectedExecutionException ex) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("ParallelIterator: search rejected, using ClassLoader '" + loader + "' on this thread");
+                    }
+                    search.run();
+                }
+            }
+        }
+
+        public boolean hasNext() {
+            while (pending.isEmpty() && idx < searches.size()) {
+                ClassLoader loader = loaders.get(idx);
+                FutureTask<List<URL>> search = searches.get(idx++);
+
+                List<URL> urls;
+                try {
+                    urls = (timeout > 0) ? search.get(timeout, TimeUnit.NANOSECONDS) : search.get();
+                } catch (TimeoutException ex) {
+                    log.warn("hasNext: Skipping ClassLoader '" + loader + "', no answer within "
+                             + TimeUnit.NANOSECONDS.toMillis(timeout) + "ms");
+                    search.cancel(true);
+                    continue;
+                } catch (ExecutionException ex) {
+                    log.warn("hasNext: Ignoring Exception", ex.getCause());
+                    continue;
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    cancel();
+                    break;
+                }
+
+                for (URL url : urls) {
+                    if (log.isDebugEnabled()) {
+                        log.debug("hasNext: next URL='" + url + "'");
+                    }
+                    pending.add(new Resource(resourceName, url, loader));
+                }
+            }
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public Resource nextResource() {
+            return hasNext() ? pending.removeFirst() : null;
+        }
+
+        /**
+         * Stops the iteration, cancelling the pending searches.
+         */
+        private void cancel() {
+            while (idx < searches.size()) {
+                searches.get(idx++).cancel(true);
+            }
+        }
+
+    }
+
+    /**
+     * Check to see if the own resources of every loader of the chain
+     * can be searched, without their parents.
+     *
+     * @param chain The class loaders
+     * @return true, if all the class loaders are standard URLClassLoaders
+     */
+    private static boolean ownResourcesOnly(List<ClassLoader> chain) {
+        for (ClassLoader loader : chain) {
+            if (!(loader instanceof URLClassLoader)) {
+                return false;
+            }
+            try {
+                // parent-first delegation is only assured if getResources is not overridden
+                if (loader.getClass().getMethod("getResources", String.class).getDeclaringClass()
+                        != ClassLoader.class) {
+                    return false;
+                }
+            } catch (NoSuchMethodException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
 }
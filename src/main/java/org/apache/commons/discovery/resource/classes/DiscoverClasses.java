@@ -24,6 +24,7 @@ import java.util.Set;
 import org.apache.commons.discovery.ResourceClass;
 import org.apache.commons.discovery.ResourceClassDiscover;
 import org.apache.commons.discovery.ResourceClassIterator;
+import org.apache.commons.discovery.jdk.URLIdentity;
 import org.apache.commons.discovery.resource.ClassLoaders;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -77,7 +78,10 @@ public class DiscoverClasses<T> extends ResourceClassDiscoverImpl<T> implements
 
         return new ResourceClassIterator<T>() {
 
-            private final Set<URL> history = new HashSet<URL>();
+            /**
+             * Identities of the URLs found, see {@link URLIdentity}.
+             */
+            private final Set<String> history = new HashSet<String>();
 
             private int idx = 0;
 
@@ -124,7 +128,7 @@ public class DiscoverClasses<T> extends ResourceClassDiscoverImpl<T> implements
                     }
 
                     if (url != null) {
-                        if (history.add(url)) {
+                        if (history.add(URLIdentity.of(url))) {
                             if (log.isDebugEnabled()) {
                                 log.debug("getNextClass: next URL='" + url + "'");
                             }
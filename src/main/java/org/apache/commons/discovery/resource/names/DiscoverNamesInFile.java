@@ -16,10 +16,8 @@
  */
 package org.apache.commons.discovery.resource.names;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -241,48 +239,37 @@ public class DiscoverNamesInFile extends ResourceNameDiscoverImpl implements Res
      * @return The list with all SPI implementation names
      */
     private List<String> readServices(final Resource info) {
+        ServiceNamesCache.Stamp stamp = null;
+        if (ServiceNamesCache.isEnabled() && info.getResource() != null) {
+            stamp = ServiceNamesCache.stamp(info.getResource());
+            if (stamp != null) {
+                List<String> cached = ServiceNamesCache.get(stamp);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+        }
+
         List<String> results = new ArrayList<String>();
 
         InputStream is = info.getResourceAsStream();
 
-        if (is != null) {
-            try {
-                try {
-                    // This code is needed by EBCDIC and other
-                    // strange systems.  It's a fix for bugs
-                    // reported in xerces
-                    BufferedReader rd;
-                    try {
-                        rd = new BufferedReader(new InputStreamReader(is, "UTF-8"));
-                    } catch (java.io.UnsupportedEncodingException e) {
-                        rd = new BufferedReader(new InputStreamReader(is));
-                    }
+        if (is == null) {
+            return results;
+        }
 
-                    try {
-                        String serviceImplName;
-                        while( (serviceImplName = rd.readLine()) != null) {
-                            int idx = serviceImplName.indexOf('#');
-                            if (idx >= 0) {
-                                serviceImplName = serviceImplName.substring(0, idx);
-                            }
-                            serviceImplName = serviceImplName.trim();
-
-                            if (serviceImplName.length() != 0) {
-                                results.add(serviceImplName);
-                            }
-                        }
-                    } finally {
-                        rd.close();
-                    }
-                } finally {
-                    is.close();
-                }
-            } catch (IOException e) {
-                // ignore
+        try {
+            try {
+                ServiceNamesParser.parse(is, results);
+            } finally {
+                is.close();
             }
+        } catch (IOException e) {
+            // ignore, and don't cache partial results
+            return results;
         }
 
-        return results;
+        return (stamp == null) ? results : ServiceNamesCache.put(stamp, results);
     }
 
 }
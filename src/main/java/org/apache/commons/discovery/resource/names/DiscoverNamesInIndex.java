@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.resource.names;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.discovery.Resource;
+import org.apache.commons.discovery.ResourceDiscover;
+import org.apache.commons.discovery.ResourceIterator;
+import org.apache.commons.discovery.ResourceNameDiscover;
+import org.apache.commons.discovery.ResourceNameIterator;
+import org.apache.commons.discovery.resource.ClassLoaders;
+import org.apache.commons.discovery.resource.DiscoverResources;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Recover the provider class names of a service from precomputed
+ * service index files ({@link #INDEX_FILE}), as written by
+ * <code>ServiceDiscoveryTask</code>, instead of reading the
+ * <code>META-INF/services</code> file of every jar.
+ *
+ * The index files are read once, on the first lookup. Services which are
+ * not listed in any index file (e.g. no index file has been found) are
+ * looked up in the <code>META-INF/services</code> files, as
+ * {@link DiscoverServiceNames} does.
+ *
+ * The index is a UTF-8 text file; blank lines and lines starting with
+ * '#' are ignored, unknown lines are skipped:
+ *
+ * <pre>
+ * service &lt;service name&gt;
+ * provider &lt;provider class name&gt; &lt;source jar or directory URL&gt;
+ * ...
+ * </pre>
+ *
+ * Providers are listed in discovery order and belong to the last
+ * preceding <code>service</code> line.
+ *
+ * @since 0.6
+ */
+public class DiscoverNamesInIndex extends ResourceNameDiscoverImpl implements ResourceNameDiscover {
+
+    /**
+     * The default index file.
+     */
+    public static final String INDEX_FILE = "META-INF/discovery.idx";
+
+    /**
+     * Service line prefix.
+     */
+    public static final String SERVICE = "service";
+
+    /**
+     * Provider line prefix.
+     */
+    public static final String PROVIDER = "provider";
+
+    private static Log log = LogFactory.getLog(DiscoverNamesInIndex.class);
+
+    /**
+     * Sets the {@code Log} for this class.
+     *
+     * @param _log This class {@code Log}
+     * @deprecated This method is not thread-safe
+     */
+    @Deprecated
+    public static void setLog(Log _log) {
+        log = _log;
+    }
+
+    private final ResourceDiscover _discoverResources;
+
+    private final ResourceNameDiscover _fallback;
+
+    private final String _indexFile;
+
+    /**
+     * Service name -> provider class names.
+     */
+    private volatile Map<String, List<String>> index = null;
+
+    /**
+     * Construct a new resource discoverer.
+     */
+    public DiscoverNamesInIndex() {
+        this(new DiscoverResources());
+    }
+
+    /**
+     * Construct a new resource discoverer.
+     *
+     * @param loaders The class loaders holder
+     */
+    public DiscoverNamesInIndex(ClassLoaders loaders) {
+        this(new DiscoverResources(loaders));
+    }
+
+    /**
+     * Construct a new resource discoverer.
+     *
+     * @param discoverer The discoverer to resolve the index and services files
+     */
+    public DiscoverNamesInIndex(ResourceDiscover discoverer) {
+        this(discoverer, INDEX_FILE);
+    }
+
+    /**
+     * Construct a new resource discoverer.
+     *
+     * @param discoverer The discoverer to resolve the index and services files
+     * @param indexFile The index file resource name
+     */
+    public DiscoverNamesInIndex(ResourceDiscover discoverer, String indexFile) {
+        _discoverResources = discoverer;
+        _fallback = new DiscoverServiceNames(discoverer);
+        _indexFile = indexFile;
+    }
+
+    /**
+     * Check to see if the service is listed in an index file.
+     *
+     * @param serviceName The service name
+     * @return true, if the service is listed in an index file
+     */
+    public boolean isIndexed(String serviceName) {
+        return getIndex().containsKey(serviceName);
+    }
+
+    /**
+     * Forget the index files read, they are read again on the next lookup.
+     */
+    public void reload() {
+        index = null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ResourceNameIterator findResourceNames(final String serviceName) {
+        final List<String> providers = getIndex().get(serviceName);
+
+        if (providers == null) {
+            if (log.isDebugEnabled()) {
+                log.debug("find: serviceName='" + serviceName + "' not indexed");
+            }
+            return _fallback.findResourceNames(serviceName);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("find: serviceName='" + serviceName + "' indexed");
+        }
+
+        return new ResourceNameIterator() {
+
+            private int idx = 0;
+
+            public boolean hasNext() {
+                return idx < providers.size();
+            }
+
+            public String nextResourceName() {
+                return providers.get(idx++);
+            }
+        };
+    }
+
+    private Map<String, List<String>> getIndex() {
+        Map<String, List<String>> current = index;
+        if (current == null) {
+            current = readIndex();
+            index = current;
+        }
+        return current;
+    }
+
+    /**
+     * Reads and merges all the index files.
+     *
+     * @return Service name -> provider class names
+     */
+    private Map<String, List<String>> readIndex() {
+        Map<String, List<String>> services = new HashMap<String, List<String>>();
+
+        ResourceIterator files = _discoverResources.findResources(_indexFile);
+        while (files.hasNext()) {
+            Resource file = files.nextResource();
+            if (log.isDebugEnabled()) {
+                log.debug("readIndex: reading '" + file.getResource() + "'");
+            }
+            try {
+                readIndex(file, services);
+            } catch (IOException e) {
+                log.warn("readIndex: Ignoring unreadable index " + file.getResource(), e);
+            }
+        }
+
+        for (Map.Entry<String, List<String>> service : services.entrySet()) {
+            service.setValue(Collections.unmodifiableList(service.getValue()));
+        }
+        return services;
+    }
+
+    private static void readIndex(Resource file, Map<String, List<String>> services) throws IOException {
+        InputStream is = file.getResourceAsStream();
+        if (is == null) {
+            return;
+        }
+
+        BufferedReader rd = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        try {
+            List<String> providers = null;
+            String line;
+            while ((line = rd.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.charAt(0) == '#') {
+                    continue;
+                }
+
+                String[] fields = line.split("\\s+");
+                if (SERVICE.equals(fields[0]) && fields.length > 1) {
+                    providers = services.get(fields[1]);
+                    if (providers == null) {
+                        providers = new ArrayList<String>();
+                        services.put(fields[1], providers);
+                    }
+                } else if (PROVIDER.equals(fields[0]) && fields.length > 1 && providers != null) {
+                    providers.add(fields[1]);
+                }
+            }
+        } finally {
+            rd.close();
+        }
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.resource.names;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache of parsed names files (such as <code>META-INF/services</code> files),
+ * used by {@link DiscoverNamesInFile}, so that looking up the same service
+ * again does not open and parse its files again.
+ *
+ * Only files of the local file system, plain or in a jar, are cached:
+ * entries are keyed by the normalized URL of the file, and are valid as
+ * long as the modification time and size of the file, or of its jar,
+ * are unchanged.
+ *
+ * The cache is a bounded LRU map. Disabled by default,
+ * see {@link #setEnabled(boolean)}.
+ *
+ * @since 0.6
+ */
+public class ServiceNamesCache {
+
+    /**
+     * The default maximum number of cached files.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 256;
+
+    private static volatile boolean enabled = false;
+
+    private static volatile int maximumSize = DEFAULT_MAXIMUM_SIZE;
+
+    private static final AtomicLong hits = new AtomicLong();
+
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static final Map<String, Names> cache = new LinkedHashMap<String, Names>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Names> eldest) {
+            return size() > maximumSize;
+        }
+
+    };
+
+    /**
+     * Enables or disables the reuse of parsed files.
+     * Disabling the cache clears it.
+     *
+     * @param enable true, to reuse parsed files
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+        if (!enable) {
+            clear();
+        }
+    }
+
+    /**
+     * Returns true if parsed files are reused.
+     *
+     * @return true if parsed files are reused
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the maximum number of cached files, the least recently used
+     * files are evicted first.
+     *
+     * @param size The maximum number of cached files, at least 1
+     */
+    public static void setMaximumSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Invalid maximum size: " + size);
+        }
+        maximumSize = size;
+        synchronized (cache) {
+            // removeEldestEntry only evicts on put
+            while (cache.size() > size) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of cached files.
+     *
+     * @return The maximum number of cached files
+     */
+    public static int getMaximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Returns the number of cached files.
+     *
+     * @return The number of cached files
+     */
+    public static int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+    /**
+     * Forget all parsed files.
+     */
+    public static void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache.
+     *
+     * @return The number of lookups answered from the cache
+     */
+    public static long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of lookups of cacheable files which had to be parsed.
+     *
+     * @return The number of lookups which had to be parsed
+     */
+    public static long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the current stamp of a file, to look it up or to cache it;
+     * the stamp is to be taken before the file is read.
+     *
+     * @param url The file URL
+     * @return The stamp of the file, null if the file cannot be cached
+     */
+    static Stamp stamp(URL url) {
+        String external = url.toExternalForm();
+
+        String fileURL;
+        if (external.startsWith("jar:")) {
+            int sep = external.indexOf("!/");
+            if (sep < 0) {
+                return null;
+            }
+            fileURL = external.substring(4, sep);
+        } else {
+            fileURL = external;
+        }
+        if (!fileURL.startsWith("file:")) {
+            return null;
+        }
+
+        File file;
+        String key;
+        try {
+            file = new File(new URI(fileURL));
+            key = external.startsWith("jar:")
+                  ? "jar:" + new URI(external.substring(4)).normalize()
+                  : new URI(external).normalize().toString();
+        } catch (URISyntaxException e) {
+            return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        long modified = file.lastModified();
+        if (modified == 0L) {
+            // no such file
+            return null;
+        }
+        return new Stamp(key, modified, file.length());
+    }
+
+    /**
+     * Returns the names of the file, if cached and unchanged.
+     *
+     * @param stamp The current stamp of the file
+     * @return The names of the file, null if not cached
+     */
+    static List<String> get(Stamp stamp) {
+        Names names;
+        synchronized (cache) {
+            names = cache.get(stamp.key);
+        }
+
+        if (names != null && names.modified == stamp.modified && names.size == stamp.size) {
+            hits.incrementAndGet();
+            return names.names;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the names of the file, if enabled.
+     *
+     * @param stamp The stamp of the file, taken before it was read
+     * @param names The names of the file
+     * @return The cached names, unmodifiable
+     */
+    static List<String> put(Stamp stamp, List<String> names) {
+        List<String> unmodifiable = Collections.unmodifiableList(names);
+        if (enabled) {
+            synchronized (cache) {
+                cache.put(stamp.key, new Names(unmodifiable, stamp.modified, stamp.size));
+            }
+        }
+        return unmodifiable;
+    }
+
+    /**
+     * Identity and version of a file.
+     */
+    static final class Stamp {
+
+        final String key;
+
+        final long modified;
+
+        final long size;
+
+        Stamp(String key, long modified, long size) {
+            this.key = key;
+            this.modified = modified;
+            this.size = size;
+        }
+
+    }
+
+    /**
+     * The cached names of a file.
+     */
+    private static final class Names {
+
+        final List<String> names;
+
+        final long modified;
+
+        final long size;
+
+        Names(List<String> names, long modified, long size) {
+            this.names = names;
+            this.modified = modified;
+            this.size = size;
+        }
+
+    }
+
+}
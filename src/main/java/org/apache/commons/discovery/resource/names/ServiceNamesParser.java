@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.resource.names;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parser of <code>META-INF/services</code> files: UTF-8 text, one provider
+ * class name per line, '#' starts a comment, surrounding white space
+ * (any character up to <code>' '</code>, as <code>String.trim()</code>)
+ * is ignored.
+ *
+ * The stream is scanned in a reusable, per thread, byte buffer: the only
+ * objects created are the provider names, one <code>String</code> each.
+ *
+ * @since 0.6
+ */
+public final class ServiceNamesParser {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Largest buffer kept for reuse, bigger ones are only needed by huge lines.
+     */
+    private static final int MAX_RETAINED_BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private ServiceNamesParser() {
+        // static utility
+    }
+
+    /**
+     * Parses a services file. The stream is read to its end, not closed.
+     *
+     * @param in The services file content
+     * @return The provider class names, in file order
+     * @throws IOException if the stream cannot be read
+     */
+    public static List<String> parse(InputStream in) throws IOException {
+        List<String> names = new ArrayList<String>();
+        parse(in, names);
+        return names;
+    }
+
+    /**
+     * Parses a services file. The stream is read to its end, not closed.
+     *
+     * @param in The services file content
+     * @param names The list the provider class names are added to, in file order
+     * @throws IOException if the stream cannot be read
+     */
+    public static void parse(InputStream in, List<String> names) throws IOException {
+        byte[] buf = buffers.get();
+
+        int end = 0; // end of the bytes read
+        int scanned = 0; // end of the bytes scanned, all in the incomplete line
+        int read;
+        while ((read = in.read(buf, end, buf.length - end)) != -1) {
+            end += read;
+
+            int pos = scanLines(buf, scanned, end, names);
+            if (pos < end) {
+                // keep the last, incomplete, line
+                if (pos > 0) {
+                    System.arraycopy(buf, pos, buf, 0, end - pos);
+                } else if (end == buf.length) {
+                    byte[] bigger = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, bigger, 0, end);
+                    buf = bigger;
+                    if (buf.length <= MAX_RETAINED_BUFFER_SIZE) {
+                        buffers.set(buf);
+                    }
+                }
+                end -= pos;
+            } else {
+                end = 0;
+            }
+            scanned = end;
+        }
+
+        if (end > 0) {
+            addName(buf, 0, end, names);
+        }
+    }
+
+    /**
+     * Adds the names of the complete lines in <code>buf[0..end[</code>;
+     * <code>buf[0..from[</code> is known to hold no line end.
+     *
+     * @return The start of the incomplete last line
+     */
+    private static int scanLines(byte[] buf, int from, int end, List<String> names) throws IOException {
+        int lineStart = 0;
+        for (int idx = from; idx < end; idx++) {
+            byte b = buf[idx];
+            if (b == '\n' || b == '\r') {
+                addName(buf, lineStart, idx, names);
+                lineStart = idx + 1;
+            }
+        }
+        return lineStart;
+    }
+
+    /**
+     * Adds the name of the line <code>buf[start..end[</code>, if any.
+     */
+    private static void addName(byte[] buf, int start, int end, List<String> names) throws IOException {
+        boolean ascii = true;
+        for (int idx = start; idx < end; idx++) {
+            byte b = buf[idx];
+            if (b == '#') {
+                end = idx;
+                break;
+            }
+            if (b < 0) {
+                ascii = false;
+            }
+        }
+
+        // UTF-8 continuation and lead bytes are all >= 0x80: safe to trim bytes
+        while (start < end && (buf[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buf[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+
+        names.add(ascii ? asciiString(buf, start, end - start) : utf8String(buf, start, end - start));
+    }
+
+    /**
+     * ASCII is ISO-8859-1: copied without decoding.
+     */
+    private static String asciiString(byte[] buf, int offset, int length) throws UnsupportedEncodingException {
+        return new String(buf, offset, length, "ISO-8859-1");
+    }
+
+    private static String utf8String(byte[] buf, int offset, int length) throws UnsupportedEncodingException {
+        return new String(buf, offset, length, "UTF-8");
+    }
+
+}
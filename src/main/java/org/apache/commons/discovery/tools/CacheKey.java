@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.tools;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Composite cache key made of names, compared by value, and of
+ * objects such as class loaders, compared by identity.
+ *
+ * Keys are built with strong references for lookups, and
+ * {@link #weaken() weakened} before being stored so that a
+ * cache never pins the class loaders it is keyed by.
+ * A stored key whose objects have been collected is stale:
+ * it is only equal to itself.
+ */
+final class CacheKey {
+
+    private final Object[] names;
+
+    /**
+     * Referents, or <code>WeakReference</code>s to them once weakened.
+     */
+    private final Object[] objects;
+
+    private final boolean weak;
+
+    private final int hash;
+
+    /**
+     * Creates a new lookup key.
+     *
+     * @param names The names, compared by value (may contain nulls)
+     * @param objects The objects, compared by identity (may contain nulls)
+     */
+    CacheKey(Object[] names, Object[] objects) {
+        this.names = names;
+        this.objects = objects;
+        this.weak = false;
+
+        int h = Arrays.hashCode(names);
+        for (Object object : objects) {
+            h = h * 31 + System.identityHashCode(object);
+        }
+        this.hash = h;
+    }
+
+    private CacheKey(CacheKey key, Object[] objects) {
+        this.names = key.names;
+        this.objects = objects;
+        this.weak = true;
+        this.hash = key.hash;
+    }
+
+    /**
+     * Returns an equal key, fit to be stored, which
+     * references its objects weakly.
+     *
+     * @return The stored form of this key
+     */
+    CacheKey weaken() {
+        if (weak) {
+            return this;
+        }
+
+        Object[] refs = new Object[objects.length];
+        for (int idx = 0; idx < refs.length; idx++) {
+            if (objects[idx] != null) {
+                refs[idx] = new WeakReference<Object>(objects[idx]);
+            }
+        }
+        return new CacheKey(this, refs);
+    }
+
+    /**
+     * Check to see if any object of this key has been garbage collected.
+     *
+     * @return true, if this key can no longer be matched
+     */
+    boolean isStale() {
+        if (weak) {
+            for (Object ref : objects) {
+                if (ref != null && ((WeakReference<?>) ref).get() == null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private Object getObject(int idx) {
+        Object object = objects[idx];
+        return (weak && object != null) ? ((WeakReference<?>) object).get() : object;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) {
+            return true;
+        }
+        if (!(obj instanceof CacheKey)) {
+            return false;
+        }
+
+        CacheKey other = (CacheKey) obj;
+        if (hash != other.hash
+                || objects.length != other.objects.length
+                || !Arrays.equals(names, other.names)
+                || isStale()
+                || other.isStale()) {
+            return false;
+        }
+
+        for (int idx = 0; idx < objects.length; idx++) {
+            if (getObject(idx) != other.getObject(idx)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.tools;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.discovery.jdk.JDKHooks;
+import org.apache.commons.discovery.resource.ClassLoaders;
+
+/**
+ * Memoized, immutable, {@link ClassLoaders#getLibLoaders(Class, Class, boolean)}
+ * and {@link ClassLoaders#getAppLoaders(Class, Class, boolean)} sets, so
+ * that the lookups which default their class loaders
+ * (<code>DiscoverClass.find</code>, <code>Service.providers</code>)
+ * don't build, and prune, a new set every time.
+ *
+ * - Key::ClassLoaders Cache
+ *         Cache : ConcurrentHashMap
+ *         Key   : kind, prune, SPI, factory, thread context and
+ *                 system class loaders (<code>CacheKey</code>, weak)
+ *         Value : class loaders set (<code>ClassLoaders</code>, weak)
+ *
+ * A set references the class loaders of its SPI and factory, so it is
+ * held weakly: it lives as long as it is in use, and is rebuilt after
+ * being garbage collected.
+ *
+ * The sets returned throw <code>UnsupportedOperationException</code>
+ * on <code>put</code>.
+ *
+ * @since 0.6
+ */
+public final class ClassLoadersCache {
+
+    private static final String LIB = "lib";
+
+    private static final String APP = "app";
+
+    private static final ConcurrentMap<CacheKey, WeakReference<ClassLoaders>> cache =
+        new ConcurrentHashMap<CacheKey, WeakReference<ClassLoaders>>();
+
+    private ClassLoadersCache() {
+        // this class cannot be instantiated
+    }
+
+    /**
+     * Returns the memoized, immutable, equivalent of
+     * {@link ClassLoaders#getLibLoaders(Class, Class, boolean)}.
+     *
+     * @param spi WHAT is being looked for
+     * @param factory WHO is performing the lookup
+     * @param prune Determines if ancestors are allowed to be loaded or not
+     * @return The class loaders holder
+     */
+    public static ClassLoaders getLibLoaders(Class<?> spi, Class<?> factory, boolean prune) {
+        CacheKey key = new CacheKey(new Object[]{ LIB, Boolean.valueOf(prune) },
+                                    new Object[]{ spi,
+                                                  factory,
+                                                  JDKHooks.getJDKHooks().getSystemClassLoader() });
+        ClassLoaders loaders = get(key);
+        if (loaders == null) {
+            loaders = put(key, ClassLoaders.getLibLoaders(spi, factory, prune));
+        }
+        return loaders;
+    }
+
+    /**
+     * Returns the memoized, immutable, equivalent of
+     * {@link ClassLoaders#getAppLoaders(Class, Class, boolean)}, for the
+     * current thread context class loader.
+     *
+     * @param spi WHAT is being looked for
+     * @param factory WHO is performing the lookup
+     * @param prune Determines if ancestors are allowed to be loaded or not
+     * @return The class loaders holder
+     */
+    public static ClassLoaders getAppLoaders(Class<?> spi, Class<?> factory, boolean prune) {
+        CacheKey key = new CacheKey(new Object[]{ APP, Boolean.valueOf(prune) },
+                                    new Object[]{ spi,
+                                                  factory,
+                                                  JDKHooks.getJDKHooks().getThreadContextClassLoader(),
+                                                  JDKHooks.getJDKHooks().getSystemClassLoader() });
+        ClassLoaders loaders = get(key);
+        if (loaders == null) {
+            loaders = put(key, ClassLoaders.getAppLoaders(spi, factory, prune));
+        }
+        return loaders;
+    }
+
+    /**
+     * Returns the number of memoized sets, some of which
+     * may have been garbage collected.
+     *
+     * @return The number of memoized sets
+     */
+    public static int size() {
+        return cache.size();
+    }
+
+    /**
+     * Forget all the memoized sets.
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    private static ClassLoaders get(CacheKey key) {
+        WeakReference<ClassLoaders> ref = cache.get(key);
+        return (ref == null) ? null : ref.get();
+    }
+
+    private static ClassLoaders put(CacheKey key, ClassLoaders loaders) {
+        // cheap, only done on misses
+        for (Iterator<Map.Entry<CacheKey, WeakReference<ClassLoaders>>> entries = cache.entrySet().iterator();
+                entries.hasNext();) {
+            Map.Entry<CacheKey, WeakReference<ClassLoaders>> entry = entries.next();
+            if (entry.getKey().isStale() || entry.getValue().get() == null) {
+                entries.remove();
+            }
+        }
+
+        ClassLoaders immutable = new ImmutableClassLoaders(loaders);
+        cache.put(key.weaken(), new WeakReference<ClassLoaders>(immutable));
+        return immutable;
+    }
+
+    /**
+     * A class loaders set that cannot be changed.
+     */
+    private static final class ImmutableClassLoaders extends ClassLoaders {
+
+        ImmutableClassLoaders(ClassLoaders loaders) {
+            ArrayList<ClassLoader> copy = new ArrayList<ClassLoader>(loaders.size());
+            for (int idx = 0; idx < loaders.size(); idx++) {
+                copy.add(loaders.get(idx));
+            }
+            classLoaders = Collections.unmodifiableList(copy);
+        }
+
+        @Override
+        public void put(ClassLoader classLoader) {
+            throw new UnsupportedOperationException("Memoized class loaders sets are immutable");
+        }
+
+        @Override
+        public void put(ClassLoader classLoader, boolean prune) {
+            throw new UnsupportedOperationException("Memoized class loaders sets are immutable");
+        }
+
+    }
+
+}
@@ -130,6 +130,10 @@ public class ClassUtils {
      * with <code>params</code> as arguments value, will be used.</li>
      * </ul>
      *
+     * The constructors are looked up once per class, and cached.
+     * An exception thrown by the constructor is wrapped in an
+     * <code>InvocationTargetException</code>.
+     *
      * @param <T> The class type has to be instantiated
      * @param impl The class has to be instantiated
      * @param paramClasses The constructor arguments types (can be {@code null})
@@ -150,11 +154,17 @@ public class ClassUtils {
                NoSuchMethodException,
                InvocationTargetException {
         if (paramClasses == null || params == null) {
-            return impl.newInstance();
+            Constructor<T> constructor;
+            try {
+                constructor = ConstructorCache.get(impl, null);
+            } catch (NoSuchMethodException e) {
+                // as Class.newInstance() does
+                throw new InstantiationException(impl.getName());
+            }
+            return constructor.newInstance();
         }
 
-        Constructor<T> constructor = impl.getConstructor(paramClasses);
-        return constructor.newInstance(params);
+        return ConstructorCache.get(impl, paramClasses).newInstance(params);
     }
 
     /**
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.tools;
+
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.discovery.jdk.WeakIdentityMap;
+
+/**
+ * Cache of the constructors used to instantiate implementations:
+ *
+ * - Class::Constructors Cache
+ *         Cache : WeakIdentityMap
+ *         Key   : implementation (<code>Class</code>, weak)
+ *         Value : Constructors (soft)
+ *
+ * A constructor references its class, so the constructors of a class are
+ * held softly: they don't pin the class, and its class loader, once the
+ * class is no longer used elsewhere.
+ *
+ * The access to a public constructor of a public class is checked once,
+ * when it is looked up, rather than on every instantiation.
+ */
+final class ConstructorCache {
+
+    private static final WeakIdentityMap<Class<?>, SoftReference<Constructors>> cache =
+        new WeakIdentityMap<Class<?>, SoftReference<Constructors>>();
+
+    private ConstructorCache() {
+        // this class cannot be instantiated
+    }
+
+    /**
+     * Returns the constructor of <code>impl</code>: the (declared) default
+     * constructor if <code>paramClasses</code> is null, as used by
+     * {@link Class#newInstance()}, the public constructor with the
+     * <code>paramClasses</code> arguments types otherwise.
+     *
+     * @param <T> The class type
+     * @param impl The class
+     * @param paramClasses The constructor arguments types (can be {@code null})
+     * @return The constructor
+     * @throws NoSuchMethodException if there is no such constructor
+     */
+    static <T> Constructor<T> get(Class<T> impl, Class<?>[] paramClasses) throws NoSuchMethodException {
+        Constructors constructors = constructors(impl);
+
+        Constructor<?> constructor;
+        if (paramClasses == null) {
+            constructor = constructors.nullary;
+            if (constructor == null) {
+                constructor = prepare(impl.getDeclaredConstructor());
+                constructors.nullary = constructor;
+            }
+        } else {
+            List<Class<?>> key = Arrays.asList(paramClasses);
+            constructor = constructors.byParameters.get(key);
+            if (constructor == null) {
+                constructor = prepare(impl.getConstructor(paramClasses));
+                constructors.byParameters.put(Arrays.<Class<?>>asList(paramClasses.clone()), constructor);
+            }
+        }
+
+        @SuppressWarnings("unchecked") // the constructors of impl are Constructor<T>
+        Constructor<T> result = (Constructor<T>) constructor;
+        return result;
+    }
+
+    private static Constructors constructors(Class<?> impl) {
+        SoftReference<Constructors> ref = cache.get(impl);
+        Constructors constructors = (ref == null) ? null : ref.get();
+        if (constructors == null) {
+            // racing threads may each create one, only the last one is kept
+            constructors = new Constructors();
+            cache.put(impl, new SoftReference<Constructors>(constructors));
+        }
+        return constructors;
+    }
+
+    /**
+     * Turns off the access checks of a public constructor of a public class,
+     * which would succeed anyway; other constructors are checked on every use.
+     *
+     * @param constructor The constructor
+     * @return The same constructor
+     */
+    private static Constructor<?> prepare(Constructor<?> constructor) {
+        if (Modifier.isPublic(constructor.getModifiers())
+                && Modifier.isPublic(constructor.getDeclaringClass().getModifiers())) {
+            try {
+                constructor.setAccessible(true);
+            } catch (RuntimeException e) {
+                // not allowed (security manager, module system), checked on every use
+            }
+        }
+        return constructor;
+    }
+
+    /**
+     * The constructors of a class.
+     */
+    private static final class Constructors {
+
+        volatile Constructor<?> nullary;
+
+        final ConcurrentMap<List<Class<?>>, Constructor<?>> byParameters =
+            new ConcurrentHashMap<List<Class<?>>, Constructor<?>>();
+
+    }
+
+}
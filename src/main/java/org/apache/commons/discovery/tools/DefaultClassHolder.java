@@ -26,9 +26,37 @@ import org.apache.commons.discovery.resource.ClassLoaders;
  *
  * Class may be specified by name (String) or class (Class).
  * Using the holder complicates the users job, but minimized # of API's.
+ *
+ * Classes specified by name are loaded once per SPI and class loaders set,
+ * and shared by all the holders of the same name.
  */
 public class DefaultClassHolder<T> {
 
+    /**
+     * Default classes loaded by name, and verified, for an SPI and
+     * class loaders set, shared by all the holders.
+     */
+    private static final ResolvedClassCache defaultClasses = new ResolvedClassCache();
+
+    /**
+     * Release all the shared default classes.
+     *
+     * @since 0.6
+     */
+    public static void releaseDefaultClasses() {
+        defaultClasses.clear();
+    }
+
+    /**
+     * Release the shared default classes of the given SPI.
+     *
+     * @param spiClass The SPI class
+     * @since 0.6
+     */
+    public static void releaseDefaultClasses(Class<?> spiClass) {
+        defaultClasses.release(spiClass);
+    }
+
     private Class<? extends T> defaultClass;
 
     private final String defaultName;
@@ -67,13 +95,26 @@ public class DefaultClassHolder<T> {
      * @return The default Class.
      */
     public <S extends T> Class<S> getDefaultClass(SPInterface<T> spi, ClassLoaders loaders) {
+        CacheKey loadedKey = null;
+
         if (defaultClass == null) {
+            CacheKey key = (loaders == null) ? null : defaultKey(loaders);
+            if (key != null) {
+                @SuppressWarnings("unchecked") // verified for the same SPI before being cached
+                Class<S> cached = (Class<S>) defaultClasses.get(spi.getSPClass(), key);
+                if (cached != null) {
+                    defaultClass = cached;
+                    return cached;
+                }
+            }
+
             DiscoverClasses<T> classDiscovery = new DiscoverClasses<T>(loaders);
             ResourceClassIterator<T> classes = classDiscovery.findResourceClasses(getDefaultName());
             if (classes.hasNext()) {
                 ResourceClass<T> info = classes.nextResourceClass();
                 try {
                     defaultClass = info.loadClass();
+                    loadedKey = key;
                 } catch (Exception e) {
                     // ignore
                 }
@@ -82,6 +123,10 @@ public class DefaultClassHolder<T> {
 
         if (defaultClass != null) {
             spi.verifyAncestory(defaultClass);
+
+            if (loadedKey != null) {
+                defaultClasses.put(spi.getSPClass(), loadedKey, defaultClass);
+            }
         }
 
         @SuppressWarnings("unchecked") // the SPInterface.verifyAncestory already asserted
@@ -89,6 +134,20 @@ public class DefaultClassHolder<T> {
         return returned;
     }
 
+    /**
+     * Returns the key of the default class loaded by name from the class loaders.
+     *
+     * @param loaders The class loaders holder
+     * @return The default class key
+     */
+    private CacheKey defaultKey(ClassLoaders loaders) {
+        Object[] objects = new Object[loaders.size()];
+        for (int idx = 0; idx < objects.length; idx++) {
+            objects[idx] = loaders.get(idx);
+        }
+        return new CacheKey(new Object[]{ getDefaultName() }, objects);
+    }
+
     /**
      * Returns the hold class name.
      *
@@ -122,6 +122,14 @@ import org.apache.commons.discovery.resource.names.DiscoverServiceNames;
  * </ul>
  * </p>
  *
+ * <p>Resolved classes may be cached (see {@link #setCacheResolvedClasses(boolean)}),
+ * keyed by class loaders, SPI, property name, properties (or properties file
+ * name) and default implementation name.  Changes to the environment, such as
+ * a new <code>ManagedProperties</code> value, are not detected: cached classes
+ * have to be released explicitly.
+ * Failed discoveries may be remembered as well, see {@link NegativeCache}.
+ * </p>
+ *
  * <p><strong>IMPLEMENTATION NOTE</strong> - This implementation is modelled
  * after the SAXParserFactory and DocumentBuilderFactory implementations
  * (corresponding to the JAXP pluggability APIs) found in Apache Xerces.
@@ -136,6 +144,59 @@ public class DiscoverClass {
      */
     public static final PropertiesHolder nullProperties = null;
 
+    /**
+     * Whether resolved classes are cached.
+     */
+    private static volatile boolean cacheResolvedClasses = false;
+
+    /**
+     * Resolved classes, by SPI.
+     */
+    private static final ResolvedClassCache resolvedClasses = new ResolvedClassCache();
+
+    /**
+     * Enables or disables the cache of resolved classes.
+     * Disabling the cache releases all the cached classes.
+     *
+     * @param enabled true to cache resolved classes
+     * @since 0.6
+     */
+    public static void setCacheResolvedClasses(boolean enabled) {
+        cacheResolvedClasses = enabled;
+        if (!enabled) {
+            resolvedClasses.clear();
+        }
+    }
+
+    /**
+     * Returns true if resolved classes are cached.
+     *
+     * @return true if resolved classes are cached
+     * @since 0.6
+     */
+    public static boolean isCacheResolvedClasses() {
+        return cacheResolvedClasses;
+    }
+
+    /**
+     * Release all the cached classes.
+     *
+     * @since 0.6
+     */
+    public static void releaseResolvedClasses() {
+        resolvedClasses.clear();
+    }
+
+    /**
+     * Release the cached classes implementing the given SPI.
+     *
+     * @param spiClass The SPI class
+     * @since 0.6
+     */
+    public static void releaseResolvedClasses(Class<?> spiClass) {
+        resolvedClasses.release(spiClass);
+    }
+
     /**
      * The class loaders holder.
      */
@@ -289,10 +350,106 @@ public class DiscoverClass {
                              SPInterface<T> spi,
                              PropertiesHolder properties,
                              DefaultClassHolder<T> defaultImpl) throws DiscoveryException {
+        boolean cacheFailures = NegativeCache.isEnabled();
+
+        if (!cacheResolvedClasses && !cacheFailures) {
+            return DiscoverClass.<T, S>resolve(loaders, spi, properties, defaultImpl);
+        }
+
+        CacheKey key = resolvedKey(loaders, spi, properties, defaultImpl);
+        Class<S> resolved = null;
+
+        if (cacheResolvedClasses) {
+            @SuppressWarnings("unchecked") // resolved for the same SPI
+            Class<S> cached = (Class<S>) resolvedClasses.get(spi.getSPClass(), key);
+            resolved = cached;
+        }
+
+        if (resolved == null) {
+            if (cacheFailures) {
+                String failure = NegativeCache.get(spi.getSPClass(), key);
+                if (failure != null) {
+                    throw new DiscoveryException(failure);
+                }
+            }
+
+            try {
+                resolved = DiscoverClass.<T, S>resolve(loaders, spi, properties, defaultImpl);
+            } catch (DiscoveryException de) {
+                if (cacheFailures) {
+                    NegativeCache.put(spi.getSPClass(), key, de.getMessage());
+                }
+                throw de;
+            }
+
+            if (resolved != null && cacheResolvedClasses) {
+                resolvedClasses.put(spi.getSPClass(), key, resolved);
+            }
+        }
+
+        return resolved;
+    }
+
+    /**
+     * Returns the key of the class resolved with the given parameters.
+     *
+     * @param <T> The SPI type
+     * @param loaders The class loaders holder
+     * @param spi Service Provider Interface Class.
+     * @param properties Used to determine name of SPI implementation,.
+     * @param defaultImpl Default implementation class.
+     * @return The resolved class key
+     */
+    private static <T> CacheKey resolvedKey(ClassLoaders loaders,
+                                            SPInterface<T> spi,
+                                            PropertiesHolder properties,
+                                            DefaultClassHolder<T> defaultImpl) {
+        String propertiesFileName = null;
+        Properties props = null;
+
+        if (properties != null) {
+            propertiesFileName = properties.getPropertiesFileName();
+            if (propertiesFileName == null) {
+                props = properties.getProperties(spi, loaders);
+            }
+        }
+
+        int size = (loaders == null) ? 0 : loaders.size();
+        Object[] objects = new Object[size + 1];
+        for (int idx = 0; idx < size; idx++) {
+            objects[idx] = loaders.get(idx);
+        }
+        objects[size] = props;
+
+        return new CacheKey(new Object[]{ Boolean.valueOf(loaders == null),
+                                          spi.getPropertyName(),
+                                          propertiesFileName,
+                                          (defaultImpl == null) ? null : defaultImpl.getDefaultName() },
+                            objects);
+    }
+
+    /**
+     * Find class implementing SPI, ignoring the cache of resolved classes.
+     *
+     * @param <T> The SPI type
+     * @param <S> Any class extending T
+     * @param loaders The class loaders holder
+     * @param spi Service Provider Interface Class.
+     * @param properties Used to determine name of SPI implementation,.
+     * @param defaultImpl Default implementation class.
+     * @return Class implementing the SPI.
+     * @exception DiscoveryException Thrown if the name of a class implementing
+     *            the SPI cannot be found, if the class cannot be loaded, or if
+     *            the resulting class does not implement (or extend) the SPI.
+     */
+    private static <T, S extends T> Class<S> resolve(ClassLoaders loaders,
+                             SPInterface<T> spi,
+                             PropertiesHolder properties,
+                             DefaultClassHolder<T> defaultImpl) throws DiscoveryException {
         if (loaders == null) {
-            loaders = ClassLoaders.getLibLoaders(spi.getSPClass(),
-                                                 DiscoverClass.class,
-                                                 true);
+            loaders = ClassLoadersCache.getLibLoaders(spi.getSPClass(),
+                                                      DiscoverClass.class,
+                                                      true);
         }
 
         Properties props = (properties == null)
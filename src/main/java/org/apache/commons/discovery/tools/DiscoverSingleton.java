@@ -16,9 +16,13 @@
  */
 package org.apache.commons.discovery.tools;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.discovery.DiscoveryException;
 import org.apache.commons.discovery.jdk.JDKHooks;
@@ -189,6 +193,18 @@ import org.apache.commons.discovery.resource.ClassLoaders;
  * </ul>
  * </p>
  *
+ * <p>By default, threads racing to find an SPI that is not cached yet
+ * each discover and instantiate it, and the last one wins the cache.
+ * In <i>single-flight</i> mode (see {@link #setSingleFlight(boolean)}), the
+ * first thread discovers the SPI for its thread context class loader,
+ * while the other threads looking for the same SPI in the same context
+ * wait for that single instance.  Lookups of other SPIs are not affected.
+ * </p>
+ *
+ * <p>Failed discoveries may be remembered for a while,
+ * see {@link NegativeCache}.
+ * </p>
+ *
  * <p><strong>IMPLEMENTATION NOTE</strong> - This implementation is modelled
  * after the SAXParserFactory and DocumentBuilderFactory implementations
  * (corresponding to the JAXP pluggability APIs) found in Apache Xerces.
@@ -198,6 +214,40 @@ import org.apache.commons.discovery.resource.ClassLoaders;
  */
 public class DiscoverSingleton {
 
+    /**
+     * Whether concurrent discoveries of the same SPI are collapsed.
+     */
+    private static volatile boolean singleFlight = false;
+
+    /**
+     * Discoveries in progress, in single-flight mode.
+     */
+    private static final ConcurrentMap<FlightKey, Flight<?>> flights =
+        new ConcurrentHashMap<FlightKey, Flight<?>>();
+
+    /**
+     * Enables or disables the single-flight mode: when enabled, only the
+     * first thread looking for a not yet cached SPI discovers it,
+     * other threads looking for the same SPI (with the same thread context
+     * class loader) wait for, and share, its result.
+     *
+     * @param enabled true to enable the single-flight mode
+     * @since 0.6
+     */
+    public static void setSingleFlight(boolean enabled) {
+        singleFlight = enabled;
+    }
+
+    /**
+     * Returns true if the single-flight mode is enabled.
+     *
+     * @return true if the single-flight mode is enabled
+     * @since 0.6
+     */
+    public static boolean isSingleFlight() {
+        return singleFlight;
+    }
+
     /********************** (RELATIVELY) SIMPLE FINDERS **********************
      *
      * These finders are suitable for direct use in components looking for a
@@ -219,6 +269,11 @@ public class DiscoverSingleton {
      *            (or extend) the SPI.
      */
     public static <T> T find(Class<T> spiClass) throws DiscoveryException {
+        T obj = getCached(spiClass);
+        if (obj != null) {
+            return obj;
+        }
+
         return find(null,
                     new SPInterface<T>(spiClass),
                     DiscoverClass.nullProperties,
@@ -244,6 +299,11 @@ public class DiscoverSingleton {
      *            (or extend) the SPI.
      */
     public static <T> T find(Class<T> spiClass, Properties properties) throws DiscoveryException {
+        T obj = getCached(spiClass);
+        if (obj != null) {
+            return obj;
+        }
+
         return find(null,
                     new SPInterface<T>(spiClass),
                     new PropertiesHolder(properties),
@@ -267,6 +327,11 @@ public class DiscoverSingleton {
      *            (or extend) the SPI.
      */
     public static <T> T find(Class<T> spiClass, String defaultImpl) throws DiscoveryException {
+        T obj = getCached(spiClass);
+        if (obj != null) {
+            return obj;
+        }
+
         return find(null,
                     new SPInterface<T>(spiClass),
                     DiscoverClass.nullProperties,
@@ -296,6 +361,11 @@ public class DiscoverSingleton {
     public static <T> T find(Class<T> spiClass,
                               Properties properties,
                               String defaultImpl) throws DiscoveryException {
+        T obj = getCached(spiClass);
+        if (obj != null) {
+            return obj;
+        }
+
         return find(null,
                     new SPInterface<T>(spiClass),
                     new PropertiesHolder(properties),
@@ -325,6 +395,11 @@ public class DiscoverSingleton {
     public static <T> T find(Class<T> spiClass,
                               String propertiesFileName,
                               String defaultImpl) throws DiscoveryException {
+        T obj = getCached(spiClass);
+        if (obj != null) {
+            return obj;
+        }
+
         return find(null,
                     new SPInterface<T>(spiClass),
                     new PropertiesHolder(propertiesFileName),
@@ -366,22 +441,109 @@ public class DiscoverSingleton {
         T obj = (T) get(contextLoader, spi.getSPName());
 
         if (obj == null) {
-            try {
-                obj = DiscoverClass.newInstance(loaders, spi, properties, defaultImpl);
-
-                if (obj != null) {
-                    put(contextLoader, spi.getSPName(), obj);
-                }
-            } catch (DiscoveryException de) {
-                throw de;
-            } catch (Exception e) {
-                throw new DiscoveryException("Unable to instantiate implementation class for " + spi.getSPName(), e);
+            if (singleFlight) {
+                obj = findOnce(contextLoader, loaders, spi, properties, defaultImpl);
+            } else {
+                obj = discover(contextLoader, loaders, spi, properties, defaultImpl);
             }
         }
 
         return obj;
     }
 
+    /**
+     * Discover, instantiate and cache implementation of SPI.
+     *
+     * @param <T> Service Provider Interface type
+     * @param contextLoader The thread context class loader, used as cache key
+     * @param loaders The {@code ClassLoader} holder
+     * @param spi Service Provider Interface Class.
+     * @param properties Used to determine name of SPI implementation.
+     * @param defaultImpl Default implementation.
+     * @return Instance of a class implementing the SPI.
+     * @exception DiscoveryException Thrown if the SPI cannot be discovered or instantiated.
+     */
+    private static <T> T discover(ClassLoader contextLoader,
+                                  ClassLoaders loaders,
+                                  SPInterface<T> spi,
+                                  PropertiesHolder properties,
+                                  DefaultClassHolder<T> defaultImpl) throws DiscoveryException {
+        try {
+            T obj = DiscoverClass.newInstance(loaders, spi, properties, defaultImpl);
+
+            if (obj != null) {
+                put(contextLoader, spi.getSPName(), obj);
+            }
+
+            return obj;
+        } catch (DiscoveryException de) {
+            throw de;
+        } catch (Exception e) {
+            throw new DiscoveryException("Unable to instantiate implementation class for " + spi.getSPName(), e);
+        }
+    }
+
+    /**
+     * Discover implementation of SPI, unless another thread is already
+     * discovering it, in which case wait for its result.
+     *
+     * @param <T> Service Provider Interface type
+     * @param contextLoader The thread context class loader, used as cache key
+     * @param loaders The {@code ClassLoader} holder
+     * @param spi Service Provider Interface Class.
+     * @param properties Used to determine name of SPI implementation.
+     * @param defaultImpl Default implementation.
+     * @return Instance of a class implementing the SPI.
+     * @exception DiscoveryException Thrown if the SPI cannot be discovered or instantiated.
+     */
+    private static <T> T findOnce(final ClassLoader contextLoader,
+                                  final ClassLoaders loaders,
+                                  final SPInterface<T> spi,
+                                  final PropertiesHolder properties,
+                                  final DefaultClassHolder<T> defaultImpl) throws DiscoveryException {
+        final String spiName = spi.getSPName();
+        FlightKey key = new FlightKey(contextLoader, spiName);
+
+        Flight<T> flight = new Flight<T>(new Callable<T>() {
+            public T call() {
+                // a flight may have landed since our cache lookup
+                @SuppressWarnings("unchecked") // spiName is assignable from stored object class
+                T obj = (T) get(contextLoader, spiName);
+                return (obj != null) ? obj : discover(contextLoader, loaders, spi, properties, defaultImpl);
+            }
+        });
+
+        @SuppressWarnings("unchecked") // same SPI name and loader, same type
+        Flight<T> running = (Flight<T>) flights.putIfAbsent(key, flight);
+
+        if (running == null) {
+            try {
+                flight.run();
+            } finally {
+                flights.remove(key, flight);
+            }
+            running = flight;
+        } else if (running.pilot == Thread.currentThread()) {
+            throw new DiscoveryException("Circular discovery of " + spiName);
+        }
+
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new DiscoveryException("Unable to instantiate implementation class for " + spiName, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DiscoveryException("Interrupted while waiting for " + spiName, e);
+        }
+    }
+
     /********************** CACHE-MANAGEMENT SUPPORT **********************/
 
     /**
@@ -395,7 +557,7 @@ public class DiscoverSingleton {
      * Dangling references to objects in that class loader would prevent
      * garbage collection.
      */
-    public static synchronized void release() {
+    public static void release() {
         EnvironmentCache.release();
     }
 
@@ -407,7 +569,7 @@ public class DiscoverSingleton {
      *
      * @param spiClass The previously created service
      */
-    public static synchronized void release(Class<?> spiClass) {
+    public static void release(Class<?> spiClass) {
         Map<String, Object> spis = EnvironmentCache.get(JDKHooks.getJDKHooks().getThreadContextClassLoader());
 
         if (spis != null) {
@@ -423,21 +585,21 @@ public class DiscoverSingleton {
      * have the same thread context class loader... as that will be used
      * to identify all cached entries to be released.
      *
-     * We will manage synchronization directly, so all caches are implemented
-     * as HashMap (unsynchronized).
+     * All caches are implemented as ConcurrentHashMap, so cache hits
+     * never block on a monitor.
      *
      * - ClassLoader::groupContext::SPI::Instance Cache
-     *         Cache : HashMap
+     *         Cache : ConcurrentHashMap
      *         Key   : Thread Context Class Loader (<code>ClassLoader</code>).
-     *         Value : groupContext::SPI Cache (<code>HashMap</code>).
+     *         Value : groupContext::SPI Cache (<code>ConcurrentHashMap</code>).
      * 
      * - groupContext::SPI::Instance Cache
-     *         Cache : HashMap
+     *         Cache : ConcurrentHashMap
      *         Key   : groupContext (<code>String</code>).
-     *         Value : SPI Cache (<code>HashMap</code>).
+     *         Value : SPI Cache (<code>ConcurrentHashMap</code>).
      * 
      * - SPI::Instance Cache
-     *         Cache : HashMap
+     *         Cache : ConcurrentHashMap
      *         Key   : SPI Class Name (<code>String</code>).
      *         Value : SPI Instance/Implementation (<code>Object</code>.
      */
@@ -447,6 +609,23 @@ public class DiscoverSingleton {
      * Allows null keys, important as default groupContext is null.
      */
 
+    /**
+     * Get service keyed by spi & current thread context class loader.
+     *
+     * This is the fast path of the <code>find</code> methods: it allocates
+     * nothing, so a cache hit doesn't create any (SPI, properties, or default
+     * implementation) holder.
+     *
+     * @param <T> Service Provider Interface type
+     * @param spiClass Service Provider Interface Class.
+     * @return The cached instance, null if none
+     */
+    private static <T> T getCached(Class<T> spiClass) {
+        @SuppressWarnings("unchecked") // spiName is assignable from stored object class
+        T obj = (T) get(JDKHooks.getJDKHooks().getThreadContextClassLoader(), spiClass.getName());
+        return obj;
+    }
+
     /**
      * Get service keyed by spi & classLoader.
      *
@@ -454,7 +633,7 @@ public class DiscoverSingleton {
      * @param spiName The SPI class name
      * @return The object instance associated to the given class loader/SPI name
      */
-    private static synchronized Object get(ClassLoader classLoader,
+    private static Object get(ClassLoader classLoader,
                                            String spiName) {
         Map<String, Object> spis = EnvironmentCache.get(classLoader);
 
@@ -471,19 +650,58 @@ public class DiscoverSingleton {
      * @param spiName The SPI class name
      * @param service The SPI object reference
      */
-    private static synchronized void put(ClassLoader classLoader,
-                                         String spiName,
-                                         Object service) {
+    private static void put(ClassLoader classLoader,
+                            String spiName,
+                            Object service) {
         if (service != null) {
-            Map<String, Object> spis = EnvironmentCache.get(classLoader);
+            EnvironmentCache.getOrCreate(classLoader).put(spiName, service);
+        }
+    }
+
+    /************************ SINGLE-FLIGHT SUPPORT ************************/
+
+    /**
+     * Identifies a discovery in progress: thread context class loader
+     * (compared by identity) and SPI name.
+     */
+    private static final class FlightKey {
+
+        private final ClassLoader classLoader;
+
+        private final String spiName;
 
-            if (spis == null) {
-                spis = new HashMap<String, Object>(EnvironmentCache.smallHashSize);
-                EnvironmentCache.put(classLoader, spis);
+        FlightKey(ClassLoader classLoader, String spiName) {
+            this.classLoader = classLoader;
+            this.spiName = spiName;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(classLoader) * 31 + spiName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof FlightKey)) {
+                return false;
             }
+            FlightKey other = (FlightKey) obj;
+            return classLoader == other.classLoader && spiName.equals(other.spiName);
+        }
+
+    }
+
+    /**
+     * A discovery in progress, run by the thread that started it.
+     */
+    private static final class Flight<T> extends FutureTask<T> {
+
+        private final Thread pilot = Thread.currentThread();
 
-            spis.put(spiName, service);
+        Flight(Callable<T> discovery) {
+            super(discovery);
         }
+
     }
 
 }
@@ -16,18 +16,24 @@
  */
 package org.apache.commons.discovery.tools;
 
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.discovery.jdk.JDKHooks;
+import org.apache.commons.discovery.jdk.WeakIdentityMap;
 
 /**
  * Cache by a 'key' unique to the environment:
  *
  * - ClassLoader::groupContext::Object Cache
- *         Cache : HashMap
- *         Key   : Thread Context Class Loader (<code>ClassLoader</code>)
- *         Value : groupContext::SPI Cache (<code>HashMap</code>)
+ *         Cache : WeakIdentityMap
+ *         Key   : Thread Context Class Loader (<code>ClassLoader</code>, weak)
+ *         Value : groupContext::SPI Cache (<code>ConcurrentHashMap</code>)
  *
  * //- groupContext::Object Cache
  * //         Cache : HashMap
@@ -37,17 +43,29 @@ import org.apache.commons.discovery.jdk.JDKHooks;
  * When we 'release', it is expected that the caller of the 'release'
  * have the same thread context class loader... as that will be used
  * to identify cached entries to be released.
+ *
+ * Reads never lock: a cache hit is a pair of concurrent map lookups,
+ * so any number of threads may consult the cache at the same time.
+ *
+ * Class loaders are referenced weakly, so an application that is thrown
+ * away without calling 'release' does not leak its class loader.
+ * A service whose class was loaded by the key class loader (or one of
+ * its descendants) would keep that loader reachable: such services are
+ * referenced weakly by the maps returned from {@link #getOrCreate},
+ * and live as long as the application itself references them.
+ * Entries bound to the system class loader (or its ancestors), which are
+ * never collected anyway, are always referenced strongly.
  */
 public class EnvironmentCache {
 
     /**
      * Allows null key, important as default groupContext is null.
      *
-     * We will manage synchronization directly, so all caches are implemented
-     * as HashMap (unsynchronized).
+     * Keys are held weakly and swept once collected; lookups never
+     * block and updates only contend on the same bin.
      */
-    private static final Map<ClassLoader, Map<String, Object>> root_cache =
-        new HashMap<ClassLoader, Map<String, Object>>();
+    private static final WeakIdentityMap<ClassLoader, Map<String, Object>> root_cache =
+        new WeakIdentityMap<ClassLoader, Map<String, Object>>();
 
     /**
      * Initial hash size for SPI's, default just seem TO big today..
@@ -60,7 +78,7 @@ public class EnvironmentCache {
      * @param classLoader The class loader key
      * @return The SPI name/instance cache
      */
-    public static synchronized Map<String, Object> get(ClassLoader classLoader) {
+    public static Map<String, Object> get(ClassLoader classLoader) {
         /*
          * 'null' (bootstrap/system class loader) thread context class loader
          * is ok...  Until we learn otherwise.
@@ -68,13 +86,44 @@ public class EnvironmentCache {
         return root_cache.get(classLoader);
     }
 
+    /**
+     * Get object keyed by classLoader, creating (and caching) an empty
+     * SPI name/instance cache if none exists yet.
+     *
+     * The returned map is safe for concurrent use; when several threads
+     * race to create it, all of them get the same instance.
+     * It does not pin the class loader, even if services put in it
+     * have been loaded by that very class loader.
+     *
+     * @param classLoader The class loader key
+     * @return The SPI name/instance cache, never null
+     * @since 0.6
+     */
+    public static Map<String, Object> getOrCreate(ClassLoader classLoader) {
+        Map<String, Object> spis = root_cache.get(classLoader);
+
+        if (spis == null) {
+            spis = new ServiceMap(classLoader);
+            Map<String, Object> existing = root_cache.putIfAbsent(classLoader, spis);
+            if (existing != null) {
+                spis = existing;
+            }
+        }
+
+        return spis;
+    }
+
     /**
      * Put service keyed by spi & classLoader.
      *
+     * The given map is held strongly: services in it that have been
+     * loaded by <code>classLoader</code> prevent it from being collected
+     * until it is released, see {@link #getOrCreate}.
+     *
      * @param classLoader The class loader key
      * @param spis The SPI name/instance cache
      */
-    public static synchronized void put(ClassLoader classLoader, Map<String, Object> spis) {
+    public static void put(ClassLoader classLoader, Map<String, Object> spis) {
         /*
          * 'null' (bootstrap/system class loader) thread context class loader
          * is ok...  Until we learn otherwise.
@@ -97,7 +146,7 @@ public class EnvironmentCache {
      * Dangling references to objects in that class loader would prevent
      * garbage collection.
      */
-    public static synchronized void release() {
+    public static void release() {
         /*
          * 'null' (bootstrap/system class loader) thread context class loader
          * is ok...  Until we learn otherwise.
@@ -113,7 +162,7 @@ public class EnvironmentCache {
      *
      * @param classLoader The class loader key
      */
-    public static synchronized void release(ClassLoader classLoader) {
+    public static void release(ClassLoader classLoader) {
         /*
          * 'null' (bootstrap/system class loader) thread context class loader
          * is ok...  Until we learn otherwise.
@@ -121,4 +170,160 @@ public class EnvironmentCache {
         root_cache.remove(classLoader);
     }
 
+    /**
+     * Returns the number of class loaders having cached entries,
+     * after sweeping the ones that have been garbage collected.
+     *
+     * @return The number of class loaders having cached entries
+     * @since 0.6
+     */
+    public static int size() {
+        return root_cache.size();
+    }
+
+    /**
+     * Check to see if <code>classLoader</code> is the system
+     * class loader or one of its ancestors, none of which is
+     * ever garbage collected.
+     *
+     * @param classLoader The class loader under test
+     * @return true, if the class loader is never garbage collected
+     */
+    private static boolean isSystemLoader(ClassLoader classLoader) {
+        if (classLoader == null) {
+            return true;
+        }
+
+        for (ClassLoader walker = JDKHooks.getJDKHooks().getSystemClassLoader();
+                walker != null;
+                walker = walker.getParent()) {
+            if (walker == classLoader) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * SPI name/instance cache bound to a class loader.
+     *
+     * Services whose class has been loaded by the bound class loader, or by
+     * one of its descendants, are referenced weakly: a strong reference
+     * from the (static) root cache would keep the class loader alive.
+     */
+    private static final class ServiceMap extends AbstractMap<String, Object> {
+
+        private final ConcurrentMap<String, Object> services =
+            new ConcurrentHashMap<String, Object>(smallHashSize);
+
+        /**
+         * The bound class loader, null if never collected.
+         */
+        private final WeakReference<ClassLoader> owner;
+
+        ServiceMap(ClassLoader classLoader) {
+            owner = isSystemLoader(classLoader) ? null : new WeakReference<ClassLoader>(classLoader);
+        }
+
+        @Override
+        public Object get(Object spiName) {
+            return resolve(spiName, services.get(spiName));
+        }
+
+        @Override
+        public boolean containsKey(Object spiName) {
+            return get(spiName) != null;
+        }
+
+        @Override
+        public Object put(String spiName, Object service) {
+            Object held = holdsOwner(service) ? new ServiceReference(service) : service;
+            return resolve(null, services.put(spiName, held));
+        }
+
+        @Override
+        public Object remove(Object spiName) {
+            return resolve(null, services.remove(spiName));
+        }
+
+        @Override
+        public int size() {
+            return services.size();
+        }
+
+        @Override
+        public void clear() {
+            services.clear();
+        }
+
+        /**
+         * Returns a snapshot of the live entries.
+         */
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            Map<String, Object> live = new HashMap<String, Object>();
+            for (Map.Entry<String, Object> entry : services.entrySet()) {
+                Object service = resolve(entry.getKey(), entry.getValue());
+                if (service != null) {
+                    live.put(entry.getKey(), service);
+                }
+            }
+            return live.entrySet();
+        }
+
+        /**
+         * Dereferences a held service, dropping the entry if collected.
+         *
+         * @param spiName The SPI name, null if the entry is already gone
+         * @param held The held service, may be null
+         * @return The service, null if none
+         */
+        private Object resolve(Object spiName, Object held) {
+            if (held instanceof ServiceReference) {
+                Object service = ((ServiceReference) held).get();
+                if (service == null && spiName != null) {
+                    services.remove(spiName, held);
+                }
+                return service;
+            }
+            return held;
+        }
+
+        /**
+         * Check to see if the service class loader is the bound class
+         * loader or one of its descendants.
+         *
+         * @param service The service
+         * @return true, if holding the service strongly would pin the bound class loader
+         */
+        private boolean holdsOwner(Object service) {
+            ClassLoader classLoader = (owner == null) ? null : owner.get();
+            if (classLoader == null) {
+                return false;
+            }
+
+            for (ClassLoader walker = service.getClass().getClassLoader();
+                    walker != null;
+                    walker = walker.getParent()) {
+                if (walker == classLoader) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Weak reference to a service, private so that it cannot
+     * be confused with a service that is a reference itself.
+     */
+    private static final class ServiceReference extends WeakReference<Object> {
+
+        ServiceReference(Object service) {
+            super(service);
+        }
+
+    }
+
 }
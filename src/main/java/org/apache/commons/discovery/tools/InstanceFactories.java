@@ -0,0 +1,507 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.discovery.DiscoveryException;
+import org.apache.commons.discovery.jdk.WeakIdentityMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Instantiates implementations through generated factories: for each
+ * implementation class and constructor signature, a small class calling
+ * the constructor directly is generated at first use, so that later
+ * instantiations are plain bytecode rather than reflective calls.
+ *
+ * Only public, concrete, classes with a public constructor whose
+ * arguments are of public, non primitive, types get a factory; for the
+ * others, or if the generation fails, {@link ClassUtils#newInstance(Class, Class[], Object[])}
+ * is used.
+ *
+ * Disabled by default, see {@link #setEnabled(boolean)}: when enabled,
+ * <code>SPInterface.newInstance</code> (and so <code>DiscoverClass.newInstance</code>,
+ * <code>DiscoverSingleton.find</code>) instantiates through the factories.
+ *
+ * - Class::Signature::Factory Cache
+ *         Cache : WeakIdentityMap
+ *         Key   : implementation (<code>Class</code>, weak)
+ *         Value : Signature::Factory Cache (<code>ConcurrentHashMap</code>, soft),
+ *                 and the last signature used
+ *
+ * A factory references the implementation it instantiates, so the
+ * factories of a class are held softly.
+ *
+ * @since 0.6
+ */
+public final class InstanceFactories {
+
+    private static Log log = LogFactory.getLog(InstanceFactories.class);
+
+    /**
+     * Sets the {@code Log} for this class.
+     *
+     * @param _log This class {@code Log}
+     * @deprecated This method is not thread-safe
+     */
+    @Deprecated
+    public static void setLog(Log _log) {
+        log = _log;
+    }
+
+    /**
+     * Implemented by the generated factories.
+     *
+     * Not meant to be used, nor implemented, by applications; it is public
+     * so that it can be implemented by classes defined by other class loaders.
+     */
+    public interface Factory {
+
+        /**
+         * Creates a new instance.
+         *
+         * @param params The constructor arguments values
+         * @return A new instance
+         */
+        Object newInstance(Object[] params);
+
+    }
+
+    private static final Class<?>[] NO_CLASSES = new Class<?>[0];
+
+    private static final Object[] NO_PARAMS = new Object[0];
+
+    /**
+     * Stands for the signatures which have no factory.
+     */
+    private static final Factory REFLECTION = new Factory() {
+        public Object newInstance(Object[] params) {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    private static final String FACTORY_PACKAGE = "org/apache/commons/discovery/generated/";
+
+    private static volatile boolean enabled = false;
+
+    private static final AtomicLong generated = new AtomicLong();
+
+    private static final WeakIdentityMap<Class<?>, SoftReference<Factories>> cache =
+        new WeakIdentityMap<Class<?>, SoftReference<Factories>>();
+
+    private InstanceFactories() {
+        // this class cannot be instantiated
+    }
+
+    /**
+     * Sets whether <code>SPInterface.newInstance</code> instantiates
+     * through generated factories; disabling also flushes the factories.
+     *
+     * @param enabled true, to instantiate through generated factories
+     */
+    public static void setEnabled(boolean enabled) {
+        InstanceFactories.enabled = enabled;
+        if (!enabled) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Returns true if <code>SPInterface.newInstance</code> instantiates
+     * through generated factories.
+     *
+     * @return true if <code>SPInterface.newInstance</code> instantiates
+     *         through generated factories
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the number of factories generated so far.
+     *
+     * @return The number of factories generated
+     */
+    public static long getGeneratedCount() {
+        return generated.get();
+    }
+
+    /**
+     * Creates a new instance of the input class, as
+     * {@link ClassUtils#newInstance(Class, Class[], Object[])} does,
+     * through a generated factory when possible.
+     *
+     * @param <T> The class type has to be instantiated
+     * @param impl The class has to be instantiated
+     * @param paramClasses The constructor arguments types (can be {@code null})
+     * @param params The constructor arguments values (can be {@code null})
+     * @return A new class instance
+     * @throws DiscoveryException see {@link ClassUtils#newInstance(Class, Class[], Object[])}
+     * @throws InstantiationException see {@link ClassUtils#newInstance(Class, Class[], Object[])}
+     * @throws IllegalAccessException see {@link ClassUtils#newInstance(Class, Class[], Object[])}
+     * @throws NoSuchMethodException see {@link ClassUtils#newInstance(Class, Class[], Object[])}
+     * @throws InvocationTargetException if the constructor throws an exception
+     */
+    public static <T> T newInstance(Class<T> impl, Class<?>[] paramClasses, Object[] params)
+        throws DiscoveryException,
+               InstantiationException,
+               IllegalAccessException,
+               NoSuchMethodException,
+               InvocationTargetException {
+        Class<?>[] types = paramClasses;
+        Object[] values = params;
+        if (types == null || values == null) {
+            types = NO_CLASSES;
+            values = NO_PARAMS;
+        }
+
+        Factory factory = getFactory(impl, types);
+        if (factory == REFLECTION || !matches(types, values)) {
+            // the reflective path reports the errors
+            return ClassUtils.newInstance(impl, paramClasses, params);
+        }
+
+        Object instance;
+        try {
+            instance = factory.newInstance(values);
+        } catch (Throwable t) {
+            // as Constructor.newInstance does
+            throw new InvocationTargetException(t);
+        }
+
+        @SuppressWarnings("unchecked") // the factory instantiates impl
+        T result = (T) instance;
+        return result;
+    }
+
+    private static boolean matches(Class<?>[] types, Object[] values) {
+        if (types.length != values.length) {
+            return false;
+        }
+        for (int idx = 0; idx < types.length; idx++) {
+            if (values[idx] != null && !types[idx].isInstance(values[idx])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Factory getFactory(Class<?> impl, Class<?>[] types) {
+        SoftReference<Factories> ref = cache.get(impl);
+        Factories factories = (ref == null) ? null : ref.get();
+        if (factories == null) {
+            // racing threads may each create one, only the last one is kept
+            factories = new Factories();
+            cache.put(impl, new SoftReference<Factories>(factories));
+        }
+
+        // most classes are instantiated with a single signature
+        Signature last = factories.last;
+        if (last != null && Arrays.equals(last.types, types)) {
+            return last.factory;
+        }
+
+        Factory factory = factories.bySignature.get(Arrays.asList(types));
+        if (factory == null) {
+            factory = generate(impl, types);
+            factories.bySignature.put(Arrays.<Class<?>>asList(types.clone()), factory);
+        }
+        factories.last = new Signature(types.clone(), factory);
+        return factory;
+    }
+
+    /**
+     * Generates the factory of the given constructor.
+     *
+     * @param impl The class to instantiate
+     * @param types The constructor arguments types
+     * @return The factory, REFLECTION if none can be generated
+     */
+    private static Factory generate(Class<?> impl, Class<?>[] types) {
+        int modifiers = impl.getModifiers();
+        if (!Modifier.isPublic(modifiers) || Modifier.isAbstract(modifiers) || impl.isArray() || impl.isPrimitive()) {
+            return REFLECTION;
+        }
+        for (Class<?> type : types) {
+            if (type.isPrimitive() || !isPublic(type)) {
+                return REFLECTION;
+            }
+        }
+
+        try {
+            Constructor<?> constructor = impl.getConstructor(types);
+            if (!Modifier.isPublic(constructor.getModifiers())) {
+                return REFLECTION;
+            }
+
+            String name = FACTORY_PACKAGE + impl.getName().replace('.', '_') + "$Factory" + types.length;
+            byte[] bytes = factoryClass(name, impl, types);
+
+            FactoryLoader loader = new FactoryLoader(impl.getClassLoader());
+            Class<?> factoryClass = loader.define(name.replace('/', '.'), bytes);
+
+            // initializing resolves impl and the arguments types, checking the access to them
+            Class.forName(factoryClass.getName(), true, loader);
+            Factory factory = (Factory) factoryClass.newInstance();
+
+            generated.incrementAndGet();
+            if (log.isDebugEnabled()) {
+                log.debug("Generated factory for " + constructor);
+            }
+            return factory;
+        } catch (Exception e) {
+            log.debug("Cannot generate a factory for class " + impl.getName(), e);
+        } catch (LinkageError e) {
+            log.debug("Cannot generate a factory for class " + impl.getName(), e);
+        }
+        return REFLECTION;
+    }
+
+    private static boolean isPublic(Class<?> type) {
+        Class<?> component = type;
+        while (component.isArray()) {
+            component = component.getComponentType();
+        }
+        return component.isPrimitive() || Modifier.isPublic(component.getModifiers());
+    }
+
+    /**
+     * Emits a (Java 5, version 49.0) class file for
+     * <code>public final class name implements Factory</code>, whose
+     * <code>newInstance(params)</code> returns
+     * <code>new impl((types[0]) params[0], ...)</code>.
+     *
+     * @param name The internal name of the factory class
+     * @param impl The class to instantiate
+     * @param types The constructor arguments types
+     * @return The class file
+     * @throws IOException never
+     */
+    private static byte[] factoryClass(String name, Class<?> impl, Class<?>[] types) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0); // minor version
+        out.writeShort(49); // major version
+
+        StringBuilder descriptor = new StringBuilder("(");
+        for (Class<?> type : types) {
+            descriptor.append(descriptor(type));
+        }
+        descriptor.append(")V");
+
+        out.writeShort(20 + 2 * types.length); // constant pool count
+        utf8(out, name); // #1
+        classRef(out, 1); // #2
+        utf8(out, "java/lang/Object"); // #3
+        classRef(out, 3); // #4
+        utf8(out, Factory.class.getName().replace('.', '/')); // #5
+        classRef(out, 5); // #6
+        utf8(out, "<init>"); // #7
+        utf8(out, "()V"); // #8
+        nameAndType(out, 7, 8); // #9
+        methodRef(out, 4, 9); // #10 Object.<init>
+        utf8(out, "Code"); // #11
+        utf8(out, impl.getName().replace('.', '/')); // #12
+        classRef(out, 12); // #13
+        utf8(out, descriptor.toString()); // #14
+        nameAndType(out, 7, 14); // #15
+        methodRef(out, 13, 15); // #16 impl.<init>
+        utf8(out, "newInstance"); // #17
+        utf8(out, "([Ljava/lang/Object;)Ljava/lang/Object;"); // #18
+        utf8(out, "<clinit>"); // #19
+        for (int idx = 0; idx < types.length; idx++) {
+            utf8(out, types[idx].getName().replace('.', '/')); // #20 + 2 * idx
+            classRef(out, 20 + 2 * idx); // #21 + 2 * idx
+        }
+
+        out.writeShort(0x0031); // ACC_PUBLIC | ACC_FINAL | ACC_SUPER
+        out.writeShort(2); // this class
+        out.writeShort(4); // super class
+        out.writeShort(1); // interfaces
+        out.writeShort(6);
+        out.writeShort(0); // fields
+
+        out.writeShort(3); // methods
+
+        // public <init>() { super(); }
+        ByteArrayOutputStream code = new ByteArrayOutputStream();
+        code.write(0x2A); // aload_0
+        code.write(0xB7); // invokespecial #10
+        u2(code, 10);
+        code.write(0xB1); // return
+        method(out, 0x0001, 7, 8, 1, 1, code.toByteArray());
+
+        // public Object newInstance(Object[] params) { return new impl((types[0]) params[0], ...); }
+        code.reset();
+        code.write(0xBB); // new #13
+        u2(code, 13);
+        code.write(0x59); // dup
+        for (int idx = 0; idx < types.length; idx++) {
+            code.write(0x2B); // aload_1
+            if (idx <= 5) {
+                code.write(0x03 + idx); // iconst_<idx>
+            } else if (idx <= Byte.MAX_VALUE) {
+                code.write(0x10); // bipush
+                code.write(idx);
+            } else {
+                code.write(0x11); // sipush
+                u2(code, idx);
+            }
+            code.write(0x32); // aaload
+            code.write(0xC0); // checkcast
+            u2(code, 21 + 2 * idx);
+        }
+        code.write(0xB7); // invokespecial #16
+        u2(code, 16);
+        code.write(0xB0); // areturn
+        method(out, 0x0001, 17, 18, types.length > 0 ? types.length + 3 : 2, 2, code.toByteArray());
+
+        // static { impl.class; types[0].class; ... } resolves, and checks the access to, the classes
+        code.reset();
+        code.write(0x13); // ldc_w #13
+        u2(code, 13);
+        code.write(0x57); // pop
+        for (int idx = 0; idx < types.length; idx++) {
+            code.write(0x13); // ldc_w
+            u2(code, 21 + 2 * idx);
+            code.write(0x57); // pop
+        }
+        code.write(0xB1); // return
+        method(out, 0x0008, 19, 8, 1, 0, code.toByteArray());
+
+        out.writeShort(0); // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void method(DataOutputStream out, int access, int name, int descriptor,
+                               int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1); // attributes
+        out.writeShort(11); // Code
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+    }
+
+    private static String descriptor(Class<?> type) {
+        if (type.isArray()) {
+            return type.getName().replace('.', '/');
+        }
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void classRef(DataOutputStream out, int nameIndex) throws IOException {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+    }
+
+    private static void nameAndType(DataOutputStream out, int nameIndex, int descriptorIndex) throws IOException {
+        out.writeByte(12);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+    }
+
+    private static void methodRef(DataOutputStream out, int classIndex, int nameAndTypeIndex) throws IOException {
+        out.writeByte(10);
+        out.writeShort(classIndex);
+        out.writeShort(nameAndTypeIndex);
+    }
+
+    private static void u2(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * The factories of a class.
+     */
+    private static final class Factories {
+
+        volatile Signature last;
+
+        final ConcurrentMap<List<Class<?>>, Factory> bySignature =
+            new ConcurrentHashMap<List<Class<?>>, Factory>();
+
+    }
+
+    /**
+     * A constructor signature, and its factory.
+     */
+    private static final class Signature {
+
+        final Class<?>[] types;
+
+        final Factory factory;
+
+        Signature(Class<?>[] types, Factory factory) {
+            this.types = types;
+            this.factory = factory;
+        }
+
+    }
+
+    /**
+     * Defines a factory class, which sees the classes of the class loader
+     * of the implementation, and the {@link Factory} interface.
+     */
+    private static final class FactoryLoader extends ClassLoader {
+
+        FactoryLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (Factory.class.getName().equals(name)) {
+                return Factory.class;
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+}
@@ -18,14 +18,20 @@ package org.apache.commons.discovery.tools;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
-import java.util.Hashtable;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.discovery.jdk.JDKHooks;
+import org.apache.commons.discovery.jdk.WeakIdentityMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
@@ -92,11 +98,29 @@ public class ManagedProperties {
 
     /**
      * Cache of Properties, keyed by (thread-context) class loaders.
-     * Use <code>HashMap</code> because it allows 'null' keys, which
+     * Use <code>WeakIdentityMap</code> because it allows 'null' keys, which
      * allows us to account for the (null) bootstrap classloader.
+     *
+     * The properties are never modified once bound: updates bind copies,
+     * built off-lock and published under the <code>propertiesCache</code> monitor.
+     */
+    private static final WeakIdentityMap<ClassLoader, Bound> propertiesCache =
+        new WeakIdentityMap<ClassLoader, Bound>();
+
+    /**
+     * Properties visible from a class loader, flattened across its ancestors,
+     * keyed by class loaders; rebuilt when read after a change.
      */
-    private static final Map<ClassLoader, Map<String, Value>> propertiesCache =
-        new HashMap<ClassLoader, Map<String, Value>>();
+    private static final WeakIdentityMap<ClassLoader, View> views =
+        new WeakIdentityMap<ClassLoader, View>();
+
+    /**
+     * Incremented on every change of the bound properties.
+     */
+    private static volatile long version = 0;
+
+    private static final List<ManagedPropertiesListener> listeners =
+        new CopyOnWriteArrayList<ManagedPropertiesListener>();
 
     /**
      * Get value for property bound to the current thread context class loader.
@@ -176,23 +200,7 @@ public class ManagedProperties {
      */
     public static void setProperty(String propertyName, String value, boolean isDefault) {
         if (propertyName != null) {
-            synchronized (propertiesCache) {
-                ClassLoader classLoader = getThreadContextClassLoader();
-                Map<String, Value> properties = propertiesCache.get(classLoader);
-
-                if (value == null) {
-                    if (properties != null) {
-                        properties.remove(propertyName);
-                    }
-                } else {
-                    if (properties == null) {
-                        properties = new HashMap<String, Value>();
-                        propertiesCache.put(classLoader, properties);
-                    }
-
-                    properties.put(propertyName, new Value(value, isDefault));
-                }
-            }
+            update(Collections.singletonMap(propertyName, (value == null) ? null : new Value(value, isDefault)));
         }
     }
 
@@ -220,77 +228,157 @@ public class ManagedProperties {
     public static void setProperties(Map<?, ?> newProperties, boolean isDefault) {
         /**
          * Each entry must be mapped to a Property.
-         * 'setProperty' does this for us.
          */
+        Map<String, Value> changes = new HashMap<String, Value>();
         for (Map.Entry<?, ?> entry : newProperties.entrySet()) {
-            setProperty( String.valueOf(entry.getKey()),
-                         String.valueOf(entry.getValue()),
-                         isDefault);
+            changes.put(String.valueOf(entry.getKey()),
+                        new Value(String.valueOf(entry.getValue()), isDefault));
         }
+        update(changes);
     }
 
     /**
-     * Return list of all property names.  This is an expensive
-     * operation: ON EACH CALL it walks through all property lists 
-     * associated with the current context class loader upto
-     * and including the bootstrap class loader.
+     * Binds, or removes for null values, properties to the current
+     * thread context class loader, as a single change: readers see
+     * either none or all of them, and listeners are notified once.
      *
-     * @return The list of all property names
+     * @param newProperties name/value pairs to be bound, null values
+     *        remove the property
+     * @param isDefault determines if properties are default or not.
+     *        A non-default property cannot be overriden.
+     *        A default property can be overriden by a property
+     *        (default or non-default) of the same name bound to
+     *        a decendent class loader.
+     * @return The names of the properties actually changed
+     * @since 0.6
      */
-    public static Enumeration<String> propertyNames() {
-        Map<String, Value> allProps = new Hashtable<String, Value>();
-
-        ClassLoader classLoader = getThreadContextClassLoader();
-
-        /**
-         * Order doesn't matter, we are only going to use
-         * the set of all keys...
-         */
-        while (true) {
-            Map<String, Value> properties = null;
-
-            synchronized (propertiesCache) {
-                properties = propertiesCache.get(classLoader);
+    public static Set<String> updateProperties(Map<String, String> newProperties, boolean isDefault) {
+        Map<String, Value> changes = new HashMap<String, Value>(newProperties.size() * 4 / 3 + 1);
+        for (Map.Entry<String, String> entry : newProperties.entrySet()) {
+            if (entry.getKey() != null) {
+                changes.put(entry.getKey(),
+                            (entry.getValue() == null) ? null : new Value(entry.getValue(), isDefault));
             }
-
-            if (properties != null) {
-                allProps.putAll(properties);
-            }
-
-            if (classLoader == null) {
-                break;
-            }
-
-            classLoader = getParent(classLoader);
         }
-
-        return Collections.enumeration(allProps.keySet());
+        return update(changes);
     }
 
     /**
-     * This is an expensive operation.
-     * ON EACH CALL it walks through all property lists 
-     * associated with the current context class loader upto
-     * and including the bootstrap class loader.
+     * Return list of all property names, bound to the current context
+     * class loader upto and including the bootstrap class loader.
      *
-     * @return Returns a <code>java.util.Properties</code> instance
+     * The names are read from a snapshot shared by all the callers,
+     * rebuilt only after the properties visible from the current
+     * context class loader changed.
+     *
+     * @return The list of all property names
+     */
+    public static Enumeration<String> propertyNames() {
+        return Collections.enumeration(getView(getThreadContextClassLoader()).names);
+    }
+
+    /**
+     * Returns a <code>java.util.Properties</code> instance
      * that is equivalent to the current state of the scoped
      * properties, in that getProperty() will return the same value.
      * However, this is a copy, so setProperty on the
      * returned value will not effect the scoped properties.
+     *
+     * The copy is made from the shared snapshot of
+     * {@link #getPropertiesSnapshot()}, and System properties.
+     *
+     * @return Returns a <code>java.util.Properties</code> instance
+     * that is equivalent to the current state of the scoped
+     * properties.
      */
     public static Properties getProperties() {
         Properties p = new Properties();
 
-        Enumeration<String> names = propertyNames();
-        while (names.hasMoreElements()) {
-            String name = names.nextElement();
-            p.put(name, getProperty(name));
+        for (Map.Entry<String, String> entry : getPropertiesSnapshot().entrySet()) {
+            String value = JDKHooks.getJDKHooks().getSystemProperty(entry.getKey());
+            p.put(entry.getKey(), (value == null) ? entry.getValue() : value);
         }
 
         return p;
     }
 
+    /**
+     * Returns the properties bound to the current context class loader
+     * upto and including the bootstrap class loader, with the same precedence
+     * as <code>getProperty</code>, but ignoring System properties.
+     *
+     * @return The immutable snapshot of the properties
+     * @see #getPropertiesSnapshot(ClassLoader)
+     * @since 0.6
+     */
+    public static Map<String, String> getPropertiesSnapshot() {
+        return getPropertiesSnapshot(getThreadContextClassLoader());
+    }
+
+    /**
+     * Returns the properties bound to the class loader upto and including
+     * the bootstrap class loader, with the same precedence as
+     * <code>getProperty</code>, but ignoring System properties.
+     *
+     * The snapshot is immutable and shared: it is built once, and rebuilt
+     * only after the properties visible from the class loader changed,
+     * that is when {@link #getVersion(ClassLoader)} changed.
+     *
+     * @param classLoader The class loader
+     * @return The immutable snapshot of the properties
+     * @since 0.6
+     */
+    public static Map<String, String> getPropertiesSnapshot(ClassLoader classLoader) {
+        return getView(classLoader).snapshot();
+    }
+
+    /**
+     * Returns the version of the properties, incremented on every change
+     * of the properties bound to any class loader.
+     *
+     * @return The version of the properties
+     * @since 0.6
+     */
+    public static long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the version of the properties visible from the class loader:
+     * it is incremented, never decremented, when the properties bound to
+     * the class loader or to any of its ancestors change; values from
+     * the same version are the same.
+     *
+     * @param classLoader The class loader
+     * @return The version of the properties visible from the class loader
+     * @since 0.6
+     */
+    public static long getVersion(ClassLoader classLoader) {
+        return getView(classLoader).stamp;
+    }
+
+    /**
+     * Registers a listener, notified after each change of the bound properties.
+     *
+     * @param listener The listener
+     * @since 0.6
+     */
+    public static void addListener(ManagedPropertiesListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * Unregisters a listener.
+     *
+     * @param listener The listener
+     * @since 0.6
+     */
+    public static void removeListener(ManagedPropertiesListener listener) {
+        listeners.remove(listener);
+    }
+
     /***************** INTERNAL IMPLEMENTATION *****************/
 
     private static class Value {
@@ -308,6 +396,164 @@ public class ManagedProperties {
             this.value = value;
             this.isDefault = isDefault;
         }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode() * 31 + (isDefault ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof Value)) {
+                return false;
+            }
+            Value other = (Value) obj;
+            return value.equals(other.value) && isDefault == other.isDefault;
+        }
+    }
+
+    /**
+     * The properties bound to a class loader, and the version they were bound at.
+     */
+    private static final class Bound {
+        final Map<String, Value> values;
+        final long version;
+
+        Bound(Map<String, Value> values, long version) {
+            this.values = values;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The properties visible from a class loader, as of a version.
+     */
+    private static final class View {
+        final long version;
+        final Map<String, Value> values;
+        final Set<String> names;
+
+        /**
+         * The latest version the properties of the class loader,
+         * or of any of its ancestors, were bound at.
+         */
+        final long stamp;
+
+        /**
+         * Built on first use, racing threads may each build an equal one.
+         */
+        private volatile Map<String, String> snapshot;
+
+        View(long version, Map<String, Value> values, long stamp) {
+            this.version = version;
+            this.values = values;
+            this.names = Collections.unmodifiableSet(values.keySet());
+            this.stamp = stamp;
+        }
+
+        /**
+         * The same properties, as of a later version.
+         */
+        View(long version, View view) {
+            this.version = version;
+            this.values = view.values;
+            this.names = view.names;
+            this.stamp = view.stamp;
+            this.snapshot = view.snapshot;
+        }
+
+        Map<String, String> snapshot() {
+            Map<String, String> strings = snapshot;
+            if (strings == null) {
+                strings = new HashMap<String, String>(values.size() * 4 / 3 + 1);
+                for (Map.Entry<String, Value> entry : values.entrySet()) {
+                    strings.put(entry.getKey(), entry.getValue().value);
+                }
+                strings = Collections.unmodifiableMap(strings);
+                snapshot = strings;
+            }
+            return strings;
+        }
+    }
+
+    /**
+     * Binds, or removes for null values, properties to the
+     * current thread context class loader.
+     *
+     * The updated properties are built without holding the lock, which is
+     * only taken to publish them, if they were not changed concurrently
+     * in the meantime; otherwise they are built again.
+     *
+     * @param changes The properties to bind, by name
+     * @return The names of the properties actually changed
+     */
+    private static Set<String> update(Map<String, Value> changes) {
+        ClassLoader classLoader = getThreadContextClassLoader();
+
+        while (true) {
+            Bound bound = propertiesCache.get(classLoader);
+            Map<String, Value> properties = (bound == null) ? null : bound.values;
+            Map<String, Value> updated = null;
+            Set<String> changed = new HashSet<String>();
+
+            for (Map.Entry<String, Value> change : changes.entrySet()) {
+                Value current = (properties == null) ? null : properties.get(change.getKey());
+                Value value = change.getValue();
+                if ((value == null) ? current == null : value.equals(current)) {
+                    continue;
+                }
+
+                if (updated == null) {
+                    updated = (properties == null)
+                              ? new HashMap<String, Value>()
+                              : new HashMap<String, Value>(properties);
+                }
+                if (value == null) {
+                    updated.remove(change.getKey());
+                } else {
+                    updated.put(change.getKey(), value);
+                }
+                changed.add(change.getKey());
+            }
+
+            if (updated == null) {
+                return Collections.emptySet();
+            }
+
+            long updatedVersion;
+            synchronized (propertiesCache) {
+                if (propertiesCache.get(classLoader) != bound) {
+                    continue;
+                }
+                updatedVersion = version + 1;
+                propertiesCache.put(classLoader, new Bound(Collections.unmodifiableMap(updated), updatedVersion));
+                version = updatedVersion;
+            }
+
+            changed = Collections.unmodifiableSet(changed);
+            notifyListeners(classLoader, changed, updatedVersion);
+            return changed;
+        }
+    }
+
+    /**
+     * Notifies the listeners of a change, outside of any lock.
+     *
+     * @param classLoader The class loader the changed properties are bound to
+     * @param propertyNames The names of the changed properties
+     * @param changeVersion The version of the change
+     */
+    private static void notifyListeners(ClassLoader classLoader, Set<String> propertyNames, long changeVersion) {
+        for (ManagedPropertiesListener listener : listeners) {
+            try {
+                listener.propertiesChanged(classLoader, propertyNames, changeVersion);
+            } catch (RuntimeException e) {
+                log.warn("Ignoring exception thrown by listener " + listener, e);
+            }
+        }
     }
 
     /**
@@ -315,47 +561,93 @@ public class ManagedProperties {
      * Explore up the tree first, as higher-level class
      * loaders take precedence over lower-level class loaders.
      *
-     * 
+     * The values are read from the flattened view of the class loader,
+     * which is rebuilt only if the properties changed since it was built.
+     *
      * @param classLoader The class loader as key
      * @param propertyName The property name to lookup
      * @return The Value associated to the input class loader and property name
      */
     private static final Value getValueProperty(ClassLoader classLoader, String propertyName) {
-        Value value = null;
+        if (propertyName == null) {
+            return null;
+        }
 
-        if (propertyName != null) {
-            /**
-             * If classLoader isn't bootstrap loader (==null),
-             * then get up-tree value.
-             */
-            if (classLoader != null) {
-                value = getValueProperty(getParent(classLoader), propertyName);
-            }
+        Value value = getView(classLoader).values.get(propertyName);
+        if (value != null && log.isDebugEnabled()) {
+            log.debug("found Managed property '" + propertyName + "'" +
+                      " with value '" + value.value + "'" +
+                      " for classloader " + classLoader + ".");
+        }
+        return value;
+    }
 
-            if (value == null  ||  value.isDefault) {
-                synchronized (propertiesCache) {
-                    Map<String, Value> properties = propertiesCache.get(classLoader);
+    /**
+     * Returns the up to date view of the properties visible from the class loader.
+     *
+     * @param classLoader The class loader
+     * @return The view of the properties visible from the class loader
+     */
+    private static View getView(ClassLoader classLoader) {
+        View view = views.get(classLoader);
+        if (view == null || view.version != version) {
+            view = flatten(classLoader);
+        }
+        return view;
+    }
 
-                    if (properties != null) {
-                        Value altValue = properties.get(propertyName);
+    /**
+     * Builds, and caches, the view of the properties visible from the class loader:
+     * the properties bound to it, and to its ancestors, with the same precedence
+     * as <code>getProperty</code>.
+     *
+     * The previous view is kept, as of the current version, if none of the
+     * properties bound to the class loader and its ancestors changed.
+     *
+     * @param classLoader The class loader
+     * @return The view of the properties visible from the class loader
+     */
+    private static View flatten(ClassLoader classLoader) {
+        // read before the properties: a concurrent change makes the view stale
+        long current = version;
 
-                        // set value only if override exists..
-                        // otherwise pass default (or null) on..
-                        if (altValue != null) {
-                            value = altValue;
+        LinkedList<ClassLoader> chain = new LinkedList<ClassLoader>();
+        for (ClassLoader walker = classLoader; walker != null; walker = getParent(walker)) {
+            chain.addFirst(walker);
+        }
+        chain.addFirst(null);
 
-                            if (log.isDebugEnabled()) {
-                                log.debug("found Managed property '" + propertyName + "'" +
-                                          " with value '" + value + "'" +
-                                          " bound to classloader " + classLoader + ".");
-                            }
-                        }
+        List<Bound> bounds = new ArrayList<Bound>(chain.size());
+        long stamp = 0;
+        for (ClassLoader loader : chain) {
+            Bound properties = propertiesCache.get(loader);
+            if (properties != null) {
+                bounds.add(properties);
+                stamp = Math.max(stamp, properties.version);
+            }
+        }
+
+        View previous = views.get(classLoader);
+        View view;
+        if (previous != null && previous.stamp == stamp) {
+            // bound properties are never dropped, so an unchanged stamp means unchanged properties
+            view = new View(current, previous);
+        } else {
+            Map<String, Value> values = new HashMap<String, Value>();
+            for (Bound properties : bounds) {
+                for (Map.Entry<String, Value> entry : properties.values.entrySet()) {
+                    // ancestors' non-default values take precedence
+                    Value inherited = values.get(entry.getKey());
+                    if (inherited == null || inherited.isDefault) {
+                        values.put(entry.getKey(), entry.getValue());
                     }
                 }
             }
+            view = new View(current, values, stamp);
         }
 
-        return value;
+        views.put(classLoader, view);
+        return view;
     }
 
     /**
@@ -0,0 +1,46 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.tools;
+
+import java.util.Set;
+
+/**
+ * Notified of the changes of the properties bound by
+ * {@link ManagedProperties}, see {@link ManagedProperties#addListener(ManagedPropertiesListener)}.
+ *
+ * Listeners are notified on the thread making the change, once the change
+ * is visible, and outside of any lock; notifications of concurrent changes
+ * may arrive out of order, as told by their versions.
+ *
+ * @since 0.6
+ */
+public interface ManagedPropertiesListener {
+
+    /**
+     * Called after properties bound to a class loader changed.
+     * The properties visible from the class loader and from all of
+     * its descendants may have changed.
+     *
+     * @param classLoader The class loader the properties are bound to
+     *        (null for the bootstrap class loader)
+     * @param propertyNames The names of the properties set, changed or removed
+     * @param version The version of the properties after the change,
+     *        see {@link ManagedProperties#getVersion()}
+     */
+    void propertiesChanged(ClassLoader classLoader, Set<String> propertyNames, long version);
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.tools;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.discovery.jdk.WeakIdentityMap;
+
+/**
+ * Remembers failed discoveries for a limited time, so that looking again
+ * for an SPI that has no implementation does not scan the class loaders
+ * again until the failure expires:
+ *
+ * <ul>
+ *   <li><code>DiscoverClass.find</code> (and so <code>DiscoverClass.newInstance</code>
+ *   and <code>DiscoverSingleton.find</code>) throw the remembered
+ *   <code>DiscoveryException</code> right away;</li>
+ *   <li><code>Service.providers</code> returns an empty enumeration right away.</li>
+ * </ul>
+ *
+ * Disabled by default, see {@link #setTimeToLive(long, TimeUnit)}.
+ *
+ * - SPI::Key::Failure Cache
+ *         Cache : WeakIdentityMap
+ *         Key   : SPI (<code>Class</code>, weak)
+ *         Value : Key::Failure Cache (<code>ConcurrentHashMap</code>)
+ *
+ * @since 0.6
+ */
+public class NegativeCache {
+
+    /**
+     * Time to live of a failure, in nanoseconds; 0 when disabled.
+     */
+    private static volatile long timeToLive = 0;
+
+    private static final AtomicLong shortCircuits = new AtomicLong();
+
+    private static final WeakIdentityMap<Class<?>, ConcurrentMap<CacheKey, Failure>> failures =
+        new WeakIdentityMap<Class<?>, ConcurrentMap<CacheKey, Failure>>();
+
+    /**
+     * Sets how long failed discoveries are remembered.
+     * A zero or negative time to live disables (and flushes) the cache.
+     *
+     * @param duration The time to live of a failure
+     * @param unit The time unit of <code>duration</code>
+     */
+    public static void setTimeToLive(long duration, TimeUnit unit) {
+        if (duration > 0) {
+            timeToLive = unit.toNanos(duration);
+        } else {
+            timeToLive = 0;
+            flush();
+        }
+    }
+
+    /**
+     * Returns how long failed discoveries are remembered.
+     *
+     * @param unit The time unit of the result
+     * @return The time to live of a failure, 0 when disabled
+     */
+    public static long getTimeToLive(TimeUnit unit) {
+        return unit.convert(timeToLive, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Forget all failed discoveries.
+     */
+    public static void flush() {
+        failures.clear();
+    }
+
+    /**
+     * Forget failed discoveries of the given SPI.
+     *
+     * @param spiClass The SPI class
+     */
+    public static void flush(Class<?> spiClass) {
+        failures.remove(spiClass);
+    }
+
+    /**
+     * Returns the number of lookups answered from remembered failures,
+     * without any discovery.
+     *
+     * @return The number of short-circuited lookups
+     */
+    public static long getShortCircuitCount() {
+        return shortCircuits.get();
+    }
+
+    /**
+     * Returns true if failed discoveries are remembered.
+     *
+     * @return true if failed discoveries are remembered
+     */
+    static boolean isEnabled() {
+        return timeToLive > 0;
+    }
+
+    /**
+     * Returns the message of a remembered, unexpired, failure.
+     * A non-null result counts as a short-circuited lookup.
+     *
+     * @param spiClass The SPI class
+     * @param key The lookup key
+     * @return The failure message, null if none
+     */
+    static String get(Class<?> spiClass, CacheKey key) {
+        Map<CacheKey, Failure> spiFailures = failures.get(spiClass);
+        if (spiFailures == null) {
+            return null;
+        }
+
+        Failure failure = spiFailures.get(key);
+        if (failure == null) {
+            return null;
+        }
+        if (failure.isExpired(System.nanoTime())) {
+            spiFailures.remove(key, failure);
+            return null;
+        }
+
+        shortCircuits.incrementAndGet();
+        return failure.message;
+    }
+
+    /**
+     * Remembers a failure, if enabled.
+     *
+     * @param spiClass The SPI class
+     * @param key The lookup key
+     * @param message The failure message
+     */
+    static void put(Class<?> spiClass, CacheKey key, String message) {
+        long ttl = timeToLive;
+        if (ttl <= 0) {
+            return;
+        }
+
+        ConcurrentMap<CacheKey, Failure> spiFailures = failures.get(spiClass);
+        if (spiFailures == null) {
+            spiFailures = new ConcurrentHashMap<CacheKey, Failure>();
+            ConcurrentMap<CacheKey, Failure> existing = failures.putIfAbsent(spiClass, spiFailures);
+            if (existing != null) {
+                spiFailures = existing;
+            }
+        }
+
+        long now = System.nanoTime();
+        for (Iterator<Map.Entry<CacheKey, Failure>> entries = spiFailures.entrySet().iterator(); entries.hasNext();) {
+            Map.Entry<CacheKey, Failure> entry = entries.next();
+            if (entry.getKey().isStale() || entry.getValue().isExpired(now)) {
+                entries.remove();
+            }
+        }
+
+        spiFailures.put(key.weaken(), new Failure(message, now + ttl));
+    }
+
+    /**
+     * A remembered failure.
+     */
+    private static final class Failure {
+
+        final String message;
+
+        final long expires;
+
+        Failure(String message, long expires) {
+            this.message = message;
+            this.expires = expires;
+        }
+
+        boolean isExpired(long now) {
+            return now - expires >= 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.discovery.Resource;
+import org.apache.commons.discovery.resource.ClassLoaders;
+
+/**
+ * Process-wide cache of the properties files loaded by
+ * {@link PropertiesHolder}, so that each lookup naming a properties file
+ * doesn't search the class loaders, and parse the file, again:
+ *
+ * - Key::Properties Cache
+ *         Cache : ConcurrentHashMap
+ *         Key   : SPI package, file name and class loaders
+ *                 (<code>CacheKey</code>, weak)
+ *         Value : the file location, modification time and
+ *                 parsed properties
+ *
+ * The values only reference strings and the file location, so the cache
+ * doesn't pin the class loaders; entries whose class loaders have been
+ * garbage collected are dropped on the next miss.
+ *
+ * A cached file is parsed again when its modification time changes; files
+ * that were not found are not searched for again until {@link #clear()}.
+ *
+ * @since 0.6
+ */
+public final class PropertiesFileCache {
+
+    private static final ConcurrentMap<CacheKey, Entry> cache =
+        new ConcurrentHashMap<CacheKey, Entry>();
+
+    private static volatile boolean enabled = true;
+
+    private PropertiesFileCache() {
+        // this class cannot be instantiated
+    }
+
+    /**
+     * Enables, or disables and clears, the cache.
+     *
+     * @param enabled true to cache the properties files
+     */
+    public static void setEnabled(boolean enabled) {
+        PropertiesFileCache.enabled = enabled;
+        if (!enabled) {
+            clear();
+        }
+    }
+
+    /**
+     * Returns true if the properties files are cached.
+     *
+     * @return true if the properties files are cached
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns the number of cached properties files, some of which
+     * may be stale.
+     *
+     * @return The number of cached properties files
+     */
+    public static int size() {
+        return cache.size();
+    }
+
+    /**
+     * Forget all the cached properties files.
+     */
+    public static void clear() {
+        cache.clear();
+    }
+
+    /**
+     * Returns a copy of the named properties file, loaded as per
+     * {@link ResourceUtils#loadProperties(Class, String, ClassLoaders)}.
+     *
+     * @param spi The SPI type
+     * @param propertiesFileName The property file name
+     * @param loaders The class loaders holder
+     * @return A copy of the properties, null if the file was not found
+     */
+    public static Properties get(Class<?> spi, String propertiesFileName, ClassLoaders loaders) {
+        if (!enabled || propertiesFileName == null || loaders == null) {
+            return ResourceUtils.loadProperties(spi, propertiesFileName, loaders);
+        }
+
+        CacheKey key = key(spi, propertiesFileName, loaders);
+        Entry entry = cache.get(key);
+        if (entry == null || entry.isModified()) {
+            // cheap, only done on misses
+            for (Iterator<CacheKey> keys = cache.keySet().iterator(); keys.hasNext();) {
+                if (keys.next().isStale()) {
+                    keys.remove();
+                }
+            }
+
+            entry = load(spi, propertiesFileName, loaders);
+            cache.put(key.weaken(), entry);
+        }
+
+        if (entry.properties == null) {
+            return null;
+        }
+
+        Properties copy = new Properties();
+        copy.putAll(entry.properties);
+        return copy;
+    }
+
+    private static CacheKey key(Class<?> spi, String propertiesFileName, ClassLoaders loaders) {
+        Object[] objects = new Object[loaders.size()];
+        for (int idx = 0; idx < objects.length; idx++) {
+            objects[idx] = loaders.get(idx);
+        }
+        return new CacheKey(new Object[]{ (spi == null) ? null : ResourceUtils.getPackageName(spi),
+                                          propertiesFileName },
+                            objects);
+    }
+
+    private static Entry load(Class<?> spi, String propertiesFileName, ClassLoaders loaders) {
+        try {
+            Resource resource = ResourceUtils.getResource(spi, propertiesFileName, loaders);
+            if (resource != null) {
+                URL url = resource.getResource();
+                long lastModified = lastModified(url);
+
+                InputStream stream = resource.getResourceAsStream();
+                if (stream != null) {
+                    Properties properties = new Properties();
+                    try {
+                        properties.load(stream);
+                    } finally {
+                        stream.close();
+                    }
+                    return new Entry(url, lastModified, properties);
+                }
+            }
+        } catch (IOException e) {
+            // ignore
+        } catch (SecurityException e) {
+            // ignore
+        }
+        return new Entry(null, 0, null);
+    }
+
+    /**
+     * Returns the modification time of a resource, a plain file
+     * system lookup for files.
+     *
+     * @param url The resource location
+     * @return The modification time, 0 if unknown
+     */
+    private static long lastModified(URL url) {
+        try {
+            if ("file".equals(url.getProtocol())) {
+                return new File(url.toURI()).lastModified();
+            }
+
+            // jar entries: read from the cached, already opened, jar file
+            URLConnection connection = url.openConnection();
+            return connection.getLastModified();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * A loaded properties file.
+     */
+    private static final class Entry {
+
+        final URL url;
+
+        final long lastModified;
+
+        final Properties properties;
+
+        Entry(URL url, long lastModified, Properties properties) {
+            this.url = url;
+            this.lastModified = lastModified;
+            this.properties = properties;
+        }
+
+        boolean isModified() {
+            return url != null && lastModified(url) != lastModified;
+        }
+
+    }
+
+}
@@ -57,6 +57,9 @@ public class PropertiesHolder {
     /**
      * Returns the {@code Properties} instance, loaded if necessary from {@code propertiesFileName}.
      *
+     * Loaded files are shared, through the {@link PropertiesFileCache},
+     * with the other holders of the same file name.
+     *
      * @param spi Optional SPI (may be null).
      *            If provided, an attempt is made to load the
      *            property file as-per Class.getResource().
@@ -67,7 +70,7 @@ public class PropertiesHolder {
      */
     public Properties getProperties(SPInterface<?> spi, ClassLoaders loaders) {
         if (properties == null) {
-            properties = ResourceUtils.loadProperties(spi.getSPClass(), getPropertiesFileName(), loaders);
+            properties = PropertiesFileCache.get(spi.getSPClass(), getPropertiesFileName(), loaders);
         }
         return properties;
     }
@@ -0,0 +1,107 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.tools;
+
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.discovery.jdk.WeakIdentityMap;
+
+/**
+ * Cache of classes resolved for an SPI:
+ *
+ * - SPI::Key::Class Cache
+ *         Cache : WeakIdentityMap
+ *         Key   : SPI (<code>Class</code>, weak)
+ *         Value : Key::Class Cache (<code>ConcurrentHashMap</code>)
+ *
+ * - Key::Class Cache
+ *         Cache : ConcurrentHashMap
+ *         Key   : lookup parameters (<code>CacheKey</code>, weak)
+ *         Value : resolved class (<code>Class</code>, weak)
+ *
+ * Nothing is referenced strongly, so the cache never pins a class loader.
+ */
+final class ResolvedClassCache {
+
+    private final WeakIdentityMap<Class<?>, ConcurrentMap<CacheKey, WeakReference<Class<?>>>> cache =
+        new WeakIdentityMap<Class<?>, ConcurrentMap<CacheKey, WeakReference<Class<?>>>>();
+
+    /**
+     * Returns the class resolved for the SPI and key.
+     *
+     * @param spiClass The SPI class
+     * @param key The lookup key
+     * @return The resolved class, null if not cached
+     */
+    Class<?> get(Class<?> spiClass, CacheKey key) {
+        ConcurrentMap<CacheKey, WeakReference<Class<?>>> classes = cache.get(spiClass);
+        if (classes == null) {
+            return null;
+        }
+
+        WeakReference<Class<?>> ref = classes.get(key);
+        return (ref == null) ? null : ref.get();
+    }
+
+    /**
+     * Caches the class resolved for the SPI and key.
+     *
+     * @param spiClass The SPI class
+     * @param key The lookup key
+     * @param resolved The resolved class
+     */
+    void put(Class<?> spiClass, CacheKey key, Class<?> resolved) {
+        ConcurrentMap<CacheKey, WeakReference<Class<?>>> classes = cache.get(spiClass);
+
+        if (classes == null) {
+            classes = new ConcurrentHashMap<CacheKey, WeakReference<Class<?>>>();
+            ConcurrentMap<CacheKey, WeakReference<Class<?>>> existing = cache.putIfAbsent(spiClass, classes);
+            if (existing != null) {
+                classes = existing;
+            }
+        }
+
+        // cheap, only done on misses
+        for (Iterator<CacheKey> keys = classes.keySet().iterator(); keys.hasNext();) {
+            if (keys.next().isStale()) {
+                keys.remove();
+            }
+        }
+
+        classes.put(key.weaken(), new WeakReference<Class<?>>(resolved));
+    }
+
+    /**
+     * Removes the classes resolved for the SPI.
+     *
+     * @param spiClass The SPI class
+     */
+    void release(Class<?> spiClass) {
+        cache.remove(spiClass);
+    }
+
+    /**
+     * Removes all the resolved classes.
+     */
+    void clear() {
+        cache.clear();
+    }
+
+}
@@ -245,6 +245,9 @@ public class SPInterface<T> {
                InvocationTargetException {
         verifyAncestory(impl);
 
+        if (InstanceFactories.isEnabled()) {
+            return InstanceFactories.newInstance(impl, paramClasses, params);
+        }
         return ClassUtils.newInstance(impl, paramClasses, params);
     }
 
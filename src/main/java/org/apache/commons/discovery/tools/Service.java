@@ -16,7 +16,9 @@
  */
 package org.apache.commons.discovery.tools;
 
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 import org.apache.commons.discovery.ResourceClass;
@@ -73,15 +75,22 @@ public class Service {
      * @param <S> Any type extends the SPI type
      * @param spi SPI to look for and load.
      * @param loaders loaders to use in search.
-     *        If <code>null</code> then use ClassLoaders.getAppLoaders().
+     *        If <code>null</code> then use ClassLoadersCache.getAppLoaders().
      * @return Enumeration of class instances ({@code S})
      */
     public static <T, S extends T> Enumeration<S> providers(final SPInterface<T> spi,
                                                             ClassLoaders loaders) {
         if (loaders == null) {
-            loaders = ClassLoaders.getAppLoaders(spi.getSPClass(),
-                                                 Service.class,
-                                                 true);
+            loaders = ClassLoadersCache.getAppLoaders(spi.getSPClass(),
+                                                      Service.class,
+                                                      true);
+        }
+
+        final CacheKey key = NegativeCache.isEnabled() ? providersKey(loaders) : null;
+
+        if (key != null && NegativeCache.get(spi.getSPClass(), key) != null) {
+            List<S> none = Collections.emptyList();
+            return Collections.enumeration(none);
         }
 
         ResourceNameIterator servicesIter =
@@ -90,7 +99,7 @@ public class Service {
         final ResourceClassIterator<T> services =
             (new DiscoverClasses<T>(loaders)).findResourceClasses(servicesIter);
 
-        return new Enumeration<S>() {
+        Enumeration<S> providers = new Enumeration<S>() {
 
             private S object = getNextClassInstance();
 
@@ -122,6 +131,26 @@ public class Service {
                 return null;
             }
         };
+
+        if (key != null && !providers.hasMoreElements()) {
+            NegativeCache.put(spi.getSPClass(), key, "No providers defined for " + spi.getSPName());
+        }
+
+        return providers;
+    }
+
+    /**
+     * Returns the key of failed provider lookups.
+     *
+     * @param loaders The class loaders used in search
+     * @return The key of failed provider lookups
+     */
+    private static CacheKey providersKey(ClassLoaders loaders) {
+        Object[] objects = new Object[loaders.size()];
+        for (int idx = 0; idx < objects.length; idx++) {
+            objects[idx] = loaders.get(idx);
+        }
+        return new CacheKey(new Object[]{ Service.class.getName() }, objects);
     }
 
 }
@@ -0,0 +1,279 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.discovery.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.apache.commons.discovery.resource.ClassLoaders;
+
+/**
+ * Test support: generates a synthetic classpath of <code>jars</code> jars,
+ * spread round-robin over a chain of <code>depth</code> nested
+ * <code>URLClassLoader</code>s.
+ *
+ * Every jar holds <code>providers</code> generated provider classes
+ * implementing the SPI, the <code>META-INF/services</code> file listing them,
+ * and a copy of {@link #RESOURCE}. Provider classes only have a public
+ * no-arg constructor: they can be loaded and instantiated, not called.
+ *
+ * The outermost loader is a child of the loader of the SPI,
+ * the innermost ({@link #getLeafLoader()}) sees every jar.
+ *
+ * @since 0.6
+ */
+public final class SyntheticClasspath {
+
+    /**
+     * Resource present in every jar.
+     */
+    public static final String RESOURCE = "org/apache/commons/discovery/test/synthetic.txt";
+
+    /**
+     * Package of the generated provider classes.
+     */
+    public static final String PROVIDER_PACKAGE = "org.apache.commons.discovery.test.synthetic";
+
+    private final Class<?> spi;
+
+    private final File directory;
+
+    private final List<URLClassLoader> loaders = new ArrayList<URLClassLoader>();
+
+    private final List<String> providerNames = new ArrayList<String>();
+
+    /**
+     * Generates the jars and builds the class loader chain.
+     *
+     * @param spi The SPI implemented by the providers, an interface
+     * @param jars The number of jars
+     * @param depth The number of nested class loaders
+     * @param providers The number of providers per jar
+     * @throws IOException if the jars cannot be written
+     */
+    public SyntheticClasspath(Class<?> spi, int jars, int depth, int providers) throws IOException {
+        if (!spi.isInterface()) {
+            throw new IllegalArgumentException("Not an interface: " + spi.getName());
+        }
+        if (jars < 0 || depth < 1 || providers < 0) {
+            throw new IllegalArgumentException("Invalid size: jars=" + jars
+                    + ", depth=" + depth + ", providers=" + providers);
+        }
+        this.spi = spi;
+
+        directory = File.createTempFile("discovery-synthetic", "");
+        if (!directory.delete() || !directory.mkdir()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+
+        List<List<URL>> urls = new ArrayList<List<URL>>();
+        for (int level = 0; level < depth; level++) {
+            urls.add(new ArrayList<URL>());
+        }
+        for (int idx = 0; idx < jars; idx++) {
+            urls.get(idx % depth).add(writeJar(idx, providers).toURI().toURL());
+        }
+
+        ClassLoader parent = spi.getClassLoader();
+        for (List<URL> level : urls) {
+            URLClassLoader loader = new URLClassLoader(level.toArray(new URL[level.size()]), parent);
+            loaders.add(loader);
+            parent = loader;
+        }
+    }
+
+    /**
+     * Returns the SPI implemented by the providers.
+     *
+     * @return The SPI implemented by the providers
+     */
+    public Class<?> getSPI() {
+        return spi;
+    }
+
+    /**
+     * Returns the services file name of the SPI.
+     *
+     * @return The services file name of the SPI
+     */
+    public String getServicesFileName() {
+        return "META-INF/services/" + spi.getName();
+    }
+
+    /**
+     * Returns the class loaders, outermost first.
+     *
+     * @return The class loaders, outermost first
+     */
+    public List<ClassLoader> getLoaders() {
+        return Collections.<ClassLoader>unmodifiableList(loaders);
+    }
+
+    /**
+     * Returns the innermost class loader, which sees every jar.
+     *
+     * @return The innermost class loader
+     */
+    public ClassLoader getLeafLoader() {
+        return loaders.get(loaders.size() - 1);
+    }
+
+    /**
+     * Returns a new holder of the innermost class loader,
+     * fit for <code>DiscoverResources</code>, <code>DiscoverClasses</code>
+     * or <code>Service.providers</code>.
+     *
+     * @return A new holder of the innermost class loader
+     */
+    public ClassLoaders getClassLoaders() {
+        ClassLoaders classLoaders = new ClassLoaders();
+        classLoaders.put(getLeafLoader());
+        return classLoaders;
+    }
+
+    /**
+     * Returns the names of all the provider classes, in jar order.
+     *
+     * @return The names of all the provider classes
+     */
+    public List<String> getProviderNames() {
+        return Collections.unmodifiableList(providerNames);
+    }
+
+    /**
+     * Deletes the jars, the class loaders must no longer be used.
+     */
+    public void dispose() {
+        loaders.clear();
+
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private File writeJar(int jar, int providers) throws IOException {
+        File file = new File(directory, "synthetic-" + jar + ".jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            StringBuilder services = new StringBuilder("# synthetic jar ").append(jar).append('\n');
+            for (int idx = 0; idx < providers; idx++) {
+                String className = PROVIDER_PACKAGE + ".Provider" + jar + "_" + idx;
+                providerNames.add(className);
+                services.append(className).append('\n');
+
+                out.putNextEntry(new JarEntry(className.replace('.', '/') + ".class"));
+                out.write(providerClass(className, spi.getName()));
+                out.closeEntry();
+            }
+
+            out.putNextEntry(new JarEntry(getServicesFileName()));
+            out.write(services.toString().getBytes("UTF-8"));
+            out.closeEntry();
+
+            out.putNextEntry(new JarEntry(RESOURCE));
+            out.write(("jar=" + jar + "\n").getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Emits a (Java 5, version 49.0) class file for
+     * <code>public class className implements interfaceName</code>,
+     * with a public no-arg constructor.
+     */
+    private static byte[] providerClass(String className, String interfaceName) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0); // minor version
+        out.writeShort(49); // major version
+
+        out.writeShort(12); // constant pool count: 11 entries
+        utf8(out, className.replace('.', '/')); // #1
+        classRef(out, 1); // #2
+        utf8(out, "java/lang/Object"); // #3
+        classRef(out, 3); // #4
+        utf8(out, interfaceName.replace('.', '/')); // #5
+        classRef(out, 5); // #6
+        utf8(out, "<init>"); // #7
+        utf8(out, "()V"); // #8
+        out.writeByte(12); // #9 NameAndType <init> ()V
+        out.writeShort(7);
+        out.writeShort(8);
+        out.writeByte(10); // #10 Methodref Object.<init>
+        out.writeShort(4);
+        out.writeShort(9);
+        utf8(out, "Code"); // #11
+
+        out.writeShort(0x0021); // ACC_PUBLIC | ACC_SUPER
+        out.writeShort(2); // this class
+        out.writeShort(4); // super class
+        out.writeShort(1); // interfaces
+        out.writeShort(6);
+        out.writeShort(0); // fields
+
+        out.writeShort(1); // methods
+        out.writeShort(0x0001); // ACC_PUBLIC
+        out.writeShort(7);
+        out.writeShort(8);
+        out.writeShort(1); // attributes
+        out.writeShort(11); // Code
+        out.writeInt(17);
+        out.writeShort(1); // max stack
+        out.writeShort(1); // max locals
+        out.writeInt(5); // code length
+        out.writeByte(0x2A); // aload_0
+        out.writeByte(0xB7); // invokespecial #10
+        out.writeShort(10);
+        out.writeByte(0xB1); // return
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+
+        out.writeShort(0); // class attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void utf8(DataOutputStream out, String value) throws IOException {
+        out.writeByte(1);
+        out.writeUTF(value);
+    }
+
+    private static void classRef(DataOutputStream out, int nameIndex) throws IOException {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+    }
+
+}
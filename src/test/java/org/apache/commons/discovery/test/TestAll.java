@@ -17,30 +17,79 @@
 package org.apache.commons.discovery.test;
 
 import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNotSame;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.Assert.fail;
 import static org.apache.commons.discovery.tools.SPInterface.newSPInterface;
 import static org.apache.commons.discovery.tools.Service.providers;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.discovery.Resource;
 import org.apache.commons.discovery.ResourceClass;
 import org.apache.commons.discovery.ResourceClassIterator;
+import org.apache.commons.discovery.DiscoveryException;
 import org.apache.commons.discovery.ResourceIterator;
+import org.apache.commons.discovery.ResourceNameIterator;
+import org.apache.commons.discovery.ant.ServiceDiscoveryTask;
 import org.apache.commons.discovery.jdk.JDKHooks;
 import org.apache.commons.discovery.resource.ClassLoaders;
+import org.apache.commons.discovery.resource.DiscoverIndexedResources;
 import org.apache.commons.discovery.resource.DiscoverResources;
 import org.apache.commons.discovery.resource.classes.DiscoverClasses;
+import org.apache.commons.discovery.resource.names.DiscoverNamesInIndex;
+import org.apache.commons.discovery.resource.names.DiscoverServiceNames;
+import org.apache.commons.discovery.resource.names.ServiceNamesCache;
+import org.apache.commons.discovery.resource.names.ServiceNamesParser;
+import org.apache.commons.discovery.tools.ClassLoadersCache;
+import org.apache.commons.discovery.tools.ClassUtils;
 import org.apache.commons.discovery.tools.DefaultClassHolder;
 import org.apache.commons.discovery.tools.DiscoverClass;
 import org.apache.commons.discovery.tools.DiscoverSingleton;
+import org.apache.commons.discovery.tools.EnvironmentCache;
+import org.apache.commons.discovery.tools.InstanceFactories;
 import org.apache.commons.discovery.tools.ManagedProperties;
+import org.apache.commons.discovery.tools.ManagedPropertiesListener;
+import org.apache.commons.discovery.tools.NegativeCache;
+import org.apache.commons.discovery.tools.PropertiesFileCache;
 import org.apache.commons.discovery.tools.PropertiesHolder;
 import org.apache.commons.discovery.tools.SPInterface;
+import org.apache.commons.discovery.tools.Service;
 import org.apache.commons.logging.Log;
 import org.junit.Test;
 
@@ -121,6 +170,156 @@ public class TestAll {
         }
     }
 
+    @Test
+    public void cacheHitsDoNotBlock() throws Exception {
+        try {
+            final TestInterface1 cached = DiscoverSingleton.find(TestInterface1.class, TestImpl1_1.class.getName());
+
+            final int threads = 8;
+            final CountDownLatch done = new CountDownLatch(threads);
+            final AtomicInteger misses = new AtomicInteger();
+
+            /*
+             * Hold the monitors that used to guard every cache access:
+             * hits must complete without ever needing them.
+             */
+            synchronized (EnvironmentCache.class) {
+                synchronized (DiscoverSingleton.class) {
+                    for (int i = 0; i < threads; i++) {
+                        new Thread() {
+                            @Override
+                            public void run() {
+                                try {
+                                    for (int j = 0; j < 1000; j++) {
+                                        TestInterface1 ti =
+                                            DiscoverSingleton.find(TestInterface1.class, TestImpl1_2.class.getName());
+                                        if (ti != cached) {
+                                            misses.incrementAndGet();
+                                        }
+                                    }
+                                } finally {
+                                    done.countDown();
+                                }
+                            }
+                        }.start();
+                    }
+
+                    assertTrue("cache hits blocked on a global monitor", done.await(30, TimeUnit.SECONDS));
+                }
+            }
+
+            assertEquals(0, misses.get());
+        } finally {
+            DiscoverSingleton.release();
+        }
+    }
+
+    @Test
+    public void cacheHitsDoNotAllocate() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return; // allocation counters not available on this VM
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        try {
+            TestInterface1 cached = DiscoverSingleton.find(TestInterface1.class, TestImpl1_1.class.getName());
+
+            for (int i = 0; i < 20000; i++) {
+                DiscoverSingleton.find(TestInterface1.class, TestImpl1_1.class.getName());
+            }
+
+            int lookups = 100000;
+            long before = allocations.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < lookups; i++) {
+                if (DiscoverSingleton.find(TestInterface1.class, TestImpl1_1.class.getName()) != cached) {
+                    fail("cache miss");
+                }
+            }
+            long allocated = allocations.getThreadAllocatedBytes(thread) - before;
+
+            // leave some room for the measurement itself
+            assertTrue(allocated + " bytes allocated by " + lookups + " cache hits", allocated < 1024);
+        } finally {
+            DiscoverSingleton.release();
+        }
+    }
+
+    @Test
+    public void singleFlightSharesOneInstance() throws Exception {
+        DiscoverSingleton.setSingleFlight(true);
+        try {
+            final int threads = 16;
+            final CountDownLatch start = new CountDownLatch(1);
+            final CountDownLatch done = new CountDownLatch(threads);
+            final TestInterface1[] found = new TestInterface1[threads];
+
+            for (int i = 0; i < threads; i++) {
+                final int slot = i;
+                new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            found[slot] = DiscoverSingleton.find(null,
+                                    new SPInterface<TestInterface1>(TestInterface1.class),
+                                    DiscoverClass.nullProperties,
+                                    new DefaultClassHolder<TestInterface1>(TestImpl1_1.class.getName()));
+                        } catch (InterruptedException e) {
+                            // found[slot] stays null
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }.start();
+            }
+
+            start.countDown();
+            assertTrue("discovery did not complete", done.await(30, TimeUnit.SECONDS));
+
+            assertNotNull(found[0]);
+            for (TestInterface1 ti : found) {
+                assertSame(found[0], ti);
+            }
+        } finally {
+            DiscoverSingleton.setSingleFlight(false);
+            DiscoverSingleton.release();
+        }
+    }
+
+    @Test
+    public void collectedClassLoadersAreSwept() throws Exception {
+        int cached = EnvironmentCache.size();
+
+        WeakReference<ClassLoader> loader = cacheInThrowawayLoader();
+        assertEquals(cached + 1, EnvironmentCache.size());
+
+        for (int i = 0; i < 100 && (loader.get() != null || EnvironmentCache.size() > cached); i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertNull("class loader pinned by the cache", loader.get());
+        assertEquals(cached, EnvironmentCache.size());
+    }
+
+    /**
+     * Caches a service that refers back to its own, otherwise unreachable, class loader.
+     */
+    private static WeakReference<ClassLoader> cacheInThrowawayLoader() throws Exception {
+        URL classes = TestImpl1_1.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[]{ classes }, null);
+
+        Object service = loader.loadClass(TestImpl1_1.class.getName()).newInstance();
+        assertSame(loader, service.getClass().getClassLoader());
+
+        EnvironmentCache.getOrCreate(loader).put(TestInterface1.class.getName(), service);
+        assertSame(service, EnvironmentCache.get(loader).get(TestInterface1.class.getName()));
+
+        return new WeakReference<ClassLoader>(loader);
+    }
+
     @Test
     public void findPropertyImpl_1() {
         TestInterface1 ti = null;
@@ -281,6 +480,904 @@ public class TestAll {
 
     }
 
+    @Test
+    public void cachedResolvedClassesUntilReleased() {
+        ClassLoaders loaders = ClassLoaders.getAppLoaders(TestInterface2.class, getClass(), false);
+        DiscoverClass discover = new DiscoverClass(loaders);
+
+        DiscoverClass.setCacheResolvedClasses(true);
+        try {
+            assertEquals(TestImpl2_1.class, discover.find(TestInterface2.class));
+
+            ManagedProperties.setProperty(TestInterface2.class.getName(), TestImpl2_2.class.getName());
+
+            // not rediscovered..
+            assertEquals(TestImpl2_1.class, discover.find(TestInterface2.class));
+
+            DiscoverClass.releaseResolvedClasses(TestInterface2.class);
+
+            assertEquals(TestImpl2_2.class, discover.find(TestInterface2.class));
+        } finally {
+            DiscoverClass.setCacheResolvedClasses(false);
+            ManagedProperties.setProperty(TestInterface2.class.getName(), null);
+        }
+    }
+
+    @Test
+    public void failedDiscoveriesShortCircuit() {
+        ClassLoaders loaders = ClassLoaders.getAppLoaders(TestInterface1.class, getClass(), false);
+        DiscoverClass discover = new DiscoverClass(loaders);
+
+        NegativeCache.setTimeToLive(1, TimeUnit.MINUTES);
+        try {
+            long shortCircuits = NegativeCache.getShortCircuitCount();
+
+            for (int i = 0; i < 2; i++) {
+                try {
+                    discover.find(TestInterface1.class);
+                    fail("TestInterface1 has no implementation");
+                } catch (DiscoveryException e) {
+                    // expected
+                }
+            }
+            assertEquals(shortCircuits + 1, NegativeCache.getShortCircuitCount());
+
+            for (int i = 0; i < 2; i++) {
+                assertFalse(providers(newSPInterface(TestInterface1.class), loaders).hasMoreElements());
+            }
+            assertEquals(shortCircuits + 2, NegativeCache.getShortCircuitCount());
+
+            NegativeCache.flush();
+            ManagedProperties.setProperty(TestInterface1.class.getName(), TestImpl1_1.class.getName());
+
+            assertEquals(TestImpl1_1.class, discover.find(TestInterface1.class));
+            assertEquals(shortCircuits + 2, NegativeCache.getShortCircuitCount());
+        } finally {
+            NegativeCache.setTimeToLive(0, TimeUnit.MINUTES);
+            ManagedProperties.setProperty(TestInterface1.class.getName(), null);
+        }
+    }
+
+    @Test
+    public void classLoadersSetsAreMemoized() {
+        ClassLoader context = Thread.currentThread().getContextClassLoader();
+        ClassLoader other = new URLClassLoader(new URL[0], context);
+        try {
+            ClassLoaders lib = ClassLoadersCache.getLibLoaders(TestInterface1.class, DiscoverClass.class, true);
+            ClassLoaders app = ClassLoadersCache.getAppLoaders(TestInterface1.class, Service.class, true);
+            assertSame(lib, ClassLoadersCache.getLibLoaders(TestInterface1.class, DiscoverClass.class, true));
+            assertSame(app, ClassLoadersCache.getAppLoaders(TestInterface1.class, Service.class, true));
+            assertNotSame(lib, ClassLoadersCache.getLibLoaders(TestInterface1.class, DiscoverClass.class, false));
+            assertEquals(loadersOf(ClassLoaders.getLibLoaders(TestInterface1.class, DiscoverClass.class, true)),
+                         loadersOf(lib));
+            assertEquals(loadersOf(ClassLoaders.getAppLoaders(TestInterface1.class, Service.class, true)),
+                         loadersOf(app));
+
+            Thread.currentThread().setContextClassLoader(other);
+            ClassLoaders otherApp = ClassLoadersCache.getAppLoaders(TestInterface1.class, Service.class, true);
+            assertNotSame(app, otherApp);
+            assertSame(other, otherApp.get(0));
+            assertSame(lib, ClassLoadersCache.getLibLoaders(TestInterface1.class, DiscoverClass.class, true));
+
+            try {
+                lib.put(other);
+                fail("memoized sets must be immutable");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+        } finally {
+            Thread.currentThread().setContextClassLoader(context);
+        }
+    }
+
+    private static List<ClassLoader> loadersOf(ClassLoaders loaders) {
+        List<ClassLoader> list = new ArrayList<ClassLoader>();
+        for (int idx = 0; idx < loaders.size(); idx++) {
+            list.add(loaders.get(idx));
+        }
+        return list;
+    }
+
+    @Test
+    public void constructorsAreReused() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            assertEquals(TestImpl1_1.class, ClassUtils.newInstance(TestImpl1_1.class, null, null).getClass());
+
+            StringBuilder builder = ClassUtils.newInstance(StringBuilder.class,
+                                                           new Class<?>[]{ String.class },
+                                                           new Object[]{ "value" + i });
+            assertEquals("value" + i, builder.toString());
+
+            SPInterface<TestInterface1> spi = new SPInterface<TestInterface1>(TestInterface1.class);
+            assertEquals(TestImpl1_2.class, spi.newInstance(TestImpl1_2.class).getClass());
+
+            try {
+                ClassUtils.newInstance(TestInterface1.class, null, null);
+                fail("interfaces cannot be instantiated");
+            } catch (InstantiationException e) {
+                // expected
+            }
+            try {
+                ClassUtils.newInstance(Hidden.class, null, null);
+                fail("private classes cannot be instantiated");
+            } catch (IllegalAccessException e) {
+                // expected
+            }
+            try {
+                ClassUtils.newInstance(StringBuilder.class, new Class<?>[]{ Thread.class }, new Object[]{ null });
+                fail("no such constructor");
+            } catch (NoSuchMethodException e) {
+                // expected
+            }
+        }
+    }
+
+    private static class Hidden {
+    }
+
+    @Test
+    public void generatedFactoriesInstantiate() throws Exception {
+        InstanceFactories.setEnabled(true);
+        try {
+            long generated = InstanceFactories.getGeneratedCount();
+            for (int i = 0; i < 3; i++) {
+                SPInterface<TestInterface1> spi = new SPInterface<TestInterface1>(TestInterface1.class);
+                assertEquals(TestImpl1_1.class, spi.newInstance(TestImpl1_1.class).getClass());
+
+                SPInterface<CharSequence> chars = new SPInterface<CharSequence>(CharSequence.class,
+                                                                                new Class<?>[]{ String.class },
+                                                                                new Object[]{ "value" + i });
+                assertEquals("value" + i, chars.newInstance(StringBuilder.class).toString());
+
+                assertEquals(Integer.valueOf(i),
+                             InstanceFactories.newInstance(Integer.class, new Class<?>[]{ int.class }, new Object[]{ i }));
+                try {
+                    InstanceFactories.newInstance(Integer.class, new Class<?>[]{ String.class }, new Object[]{ "x" });
+                    fail("the constructor throws");
+                } catch (InvocationTargetException e) {
+                    assertTrue(e.getCause() instanceof NumberFormatException);
+                }
+                try {
+                    InstanceFactories.newInstance(StringBuilder.class, new Class<?>[]{ String.class }, new Object[]{ this });
+                    fail("wrong argument type");
+                } catch (IllegalArgumentException e) {
+                    // expected
+                }
+                try {
+                    InstanceFactories.newInstance(Hidden.class, null, null);
+                    fail("private classes cannot be instantiated");
+                } catch (IllegalAccessException e) {
+                    // expected
+                }
+            }
+            // TestImpl1_1(), StringBuilder(String), Integer(String)
+            assertEquals(generated + 3, InstanceFactories.getGeneratedCount());
+        } finally {
+            InstanceFactories.setEnabled(false);
+        }
+    }
+
+    @Test
+    public void managedPropertiesFollowLoaderPrecedence() {
+        ClassLoader context = Thread.currentThread().getContextClassLoader();
+        ClassLoader root = new URLClassLoader(new URL[0], context);
+        ClassLoader middle = new URLClassLoader(new URL[0], root);
+        ClassLoader leaf = new URLClassLoader(new URL[0], middle);
+        String locked = "org.apache.commons.discovery.test.locked";
+        String overridable = "org.apache.commons.discovery.test.overridable";
+        try {
+            Thread.currentThread().setContextClassLoader(root);
+            ManagedProperties.setProperty(locked, "root");
+            ManagedProperties.setProperty(overridable, "root", true);
+
+            Thread.currentThread().setContextClassLoader(middle);
+            ManagedProperties.setProperty(locked, "middle");
+            ManagedProperties.setProperty(overridable, "middle", true);
+
+            assertEquals("root", ManagedProperties.getProperty(leaf, locked));
+            assertEquals("middle", ManagedProperties.getProperty(leaf, overridable));
+            assertEquals("root", ManagedProperties.getProperty(root, overridable));
+            assertNull(ManagedProperties.getProperty(context, locked));
+
+            // changes are seen by the views already built
+            Thread.currentThread().setContextClassLoader(leaf);
+            ManagedProperties.setProperty(overridable, "leaf");
+            assertEquals("leaf", ManagedProperties.getProperty(leaf, overridable));
+            assertEquals("middle", ManagedProperties.getProperty(middle, overridable));
+
+            Thread.currentThread().setContextClassLoader(root);
+            ManagedProperties.setProperty(locked, null);
+            assertEquals("middle", ManagedProperties.getProperty(leaf, locked));
+
+            Properties batch = new Properties();
+            batch.setProperty(locked, "batch");
+            batch.setProperty(overridable, "batch");
+            ManagedProperties.setProperties(batch);
+            assertEquals("batch", ManagedProperties.getProperty(leaf, locked));
+            assertEquals("batch", ManagedProperties.getProperty(leaf, overridable));
+        } finally {
+            Thread.currentThread().setContextClassLoader(context);
+        }
+    }
+
+    @Test
+    public void managedPropertiesChangesAreStampedAndNotified() {
+        ClassLoader context = Thread.currentThread().getContextClassLoader();
+        ClassLoader parent = new URLClassLoader(new URL[0], context);
+        ClassLoader child = new URLClassLoader(new URL[0], parent);
+        ClassLoader sibling = new URLClassLoader(new URL[0], context);
+        final String name = TestInterface2.class.getName();
+        final List<Set<String>> notified = new ArrayList<Set<String>>();
+
+        // a downstream cache releasing only the SPI whose property changed
+        ManagedPropertiesListener listener = new ManagedPropertiesListener() {
+            public void propertiesChanged(ClassLoader classLoader, Set<String> propertyNames, long version) {
+                notified.add(propertyNames);
+                if (propertyNames.contains(name)) {
+                    DiscoverClass.releaseResolvedClasses(TestInterface2.class);
+                }
+            }
+        };
+        ManagedProperties.addListener(listener);
+        DiscoverClass.setCacheResolvedClasses(true);
+        try {
+            DiscoverClass discover = new DiscoverClass(ClassLoaders.getAppLoaders(TestInterface2.class, getClass(), false));
+            assertEquals(TestImpl2_1.class, discover.find(TestInterface2.class));
+
+            long version = ManagedProperties.getVersion();
+            long childVersion = ManagedProperties.getVersion(child);
+            long siblingVersion = ManagedProperties.getVersion(sibling);
+
+            Thread.currentThread().setContextClassLoader(parent);
+            ManagedProperties.setProperty("org.apache.commons.discovery.test.unrelated", "value");
+            assertEquals(1, notified.size());
+            assertEquals(Collections.singleton("org.apache.commons.discovery.test.unrelated"), notified.get(0));
+            assertTrue(ManagedProperties.getVersion() > version);
+            assertTrue(ManagedProperties.getVersion(child) > childVersion);
+            assertEquals(siblingVersion, ManagedProperties.getVersion(sibling));
+
+            // no change, no notification
+            childVersion = ManagedProperties.getVersion(child);
+            ManagedProperties.setProperty("org.apache.commons.discovery.test.unrelated", "value");
+            assertEquals(1, notified.size());
+            assertEquals(childVersion, ManagedProperties.getVersion(child));
+
+            Thread.currentThread().setContextClassLoader(context);
+            ManagedProperties.setProperty(name, TestImpl2_2.class.getName());
+            assertEquals(2, notified.size());
+            assertEquals(TestImpl2_2.class, discover.find(TestInterface2.class));
+        } finally {
+            Thread.currentThread().setContextClassLoader(context);
+            DiscoverClass.setCacheResolvedClasses(false);
+            ManagedProperties.setProperty(name, null);
+            ManagedProperties.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void managedPropertiesSnapshotsAreShared() {
+        ClassLoader context = Thread.currentThread().getContextClassLoader();
+        ClassLoader parent = new URLClassLoader(new URL[0], context);
+        ClassLoader child = new URLClassLoader(new URL[0], parent);
+        ClassLoader sibling = new URLClassLoader(new URL[0], context);
+        String name = "org.apache.commons.discovery.test.snapshot";
+
+        try {
+            Thread.currentThread().setContextClassLoader(parent);
+            ManagedProperties.setProperty(name, "parent");
+
+            Map<String, String> snapshot = ManagedProperties.getPropertiesSnapshot(child);
+            assertEquals("parent", snapshot.get(name));
+            assertSame(snapshot, ManagedProperties.getPropertiesSnapshot(child));
+            try {
+                snapshot.put(name, "changed");
+                fail("Snapshots must be immutable");
+            } catch (UnsupportedOperationException e) {
+                // expected
+            }
+
+            // changes not visible from the child keep its snapshot
+            Thread.currentThread().setContextClassLoader(sibling);
+            ManagedProperties.setProperty(name, "sibling");
+            assertSame(snapshot, ManagedProperties.getPropertiesSnapshot(child));
+
+            Thread.currentThread().setContextClassLoader(child);
+            assertTrue(Collections.list(ManagedProperties.propertyNames()).contains(name));
+            assertEquals("parent", ManagedProperties.getProperties().getProperty(name));
+
+            Thread.currentThread().setContextClassLoader(parent);
+            ManagedProperties.setProperty(name, null);
+            assertNotSame(snapshot, ManagedProperties.getPropertiesSnapshot(child));
+            assertFalse(ManagedProperties.getPropertiesSnapshot(child).containsKey(name));
+            assertEquals("parent", snapshot.get(name));
+        } finally {
+            Thread.currentThread().setContextClassLoader(sibling);
+            ManagedProperties.setProperty(name, null);
+            Thread.currentThread().setContextClassLoader(context);
+        }
+    }
+
+    @Test
+    public void managedPropertiesBatchUpdatesAreAtomic() throws Exception {
+        final String prefix = "org.apache.commons.discovery.test.batch.";
+        final int keys = 100;
+        final List<Set<String>> notified = new ArrayList<Set<String>>();
+        ManagedPropertiesListener listener = new ManagedPropertiesListener() {
+            public void propertiesChanged(ClassLoader classLoader, Set<String> propertyNames, long version) {
+                notified.add(propertyNames);
+            }
+        };
+
+        Map<String, String> batch = new HashMap<String, String>();
+        for (int i = 0; i < keys; i++) {
+            batch.put(prefix + i, "0");
+        }
+        ManagedProperties.updateProperties(batch, false);
+        ManagedProperties.addListener(listener);
+        try {
+            batch.put(prefix + 0, "1");
+            batch.put(prefix + 1, null);
+            assertEquals(new HashSet<String>(Arrays.asList(prefix + 0, prefix + 1)),
+                         ManagedProperties.updateProperties(batch, false));
+            assertEquals(1, notified.size());
+            assertEquals("1", ManagedProperties.getProperty(prefix + 0));
+            assertNull(ManagedProperties.getProperty(prefix + 1));
+            assertTrue(ManagedProperties.updateProperties(batch, false).isEmpty());
+            assertEquals(1, notified.size());
+
+            // readers see either all, or none, of a batch
+            final AtomicInteger torn = new AtomicInteger();
+            final CountDownLatch stop = new CountDownLatch(1);
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    while (stop.getCount() > 0) {
+                        Map<String, String> snapshot = ManagedProperties.getPropertiesSnapshot();
+                        String first = snapshot.get(prefix + 2);
+                        for (int i = 3; i < keys; i++) {
+                            if (!first.equals(snapshot.get(prefix + i))) {
+                                torn.incrementAndGet();
+                            }
+                        }
+                    }
+                }
+            };
+            reader.start();
+            for (int round = 0; round < 200; round++) {
+                for (int i = 2; i < keys; i++) {
+                    batch.put(prefix + i, String.valueOf(round));
+                }
+                ManagedProperties.updateProperties(batch, false);
+            }
+            stop.countDown();
+            reader.join();
+            assertEquals(0, torn.get());
+        } finally {
+            ManagedProperties.removeListener(listener);
+            for (String name : batch.keySet()) {
+                batch.put(name, null);
+            }
+            ManagedProperties.updateProperties(batch, false);
+        }
+    }
+
+    @Test
+    public void syntheticClasspathsScale() throws Exception {
+        int[][] sizes = {
+            // jars, depth, providers per jar
+            { 1, 1, 1 },
+            { 20, 4, 3 },
+            { 60, 10, 2 }
+        };
+
+        for (int[] size : sizes) {
+            SyntheticClasspath classpath = new SyntheticClasspath(TestInterface1.class, size[0], size[1], size[2]);
+            try {
+                String label = size[0] + " jars, depth " + size[1] + ", " + size[2] + " providers";
+                ClassLoaders loaders = classpath.getClassLoaders();
+                assertEquals(label, size[1], classpath.getLoaders().size());
+
+                ResourceIterator resources = new DiscoverResources(loaders).findResources(SyntheticClasspath.RESOURCE);
+                int resourceCount = 0;
+                while (resources.hasNext()) {
+                    assertNotNull(resources.nextResource().getResource());
+                    resourceCount++;
+                }
+                assertEquals(label, size[0], resourceCount);
+
+                DiscoverClasses<TestInterface1> discoverClasses = new DiscoverClasses<TestInterface1>(loaders);
+                for (String providerName : classpath.getProviderNames()) {
+                    ResourceClassIterator<TestInterface1> classes = discoverClasses.findResourceClasses(providerName);
+                    assertTrue(label + ": " + providerName, classes.hasNext());
+                    Class<? extends TestInterface1> providerClass = classes.nextResourceClass().loadClass();
+                    assertTrue(label, classpath.getLoaders().contains(providerClass.getClassLoader()));
+                }
+
+                Enumeration<TestInterface1> providers = providers(newSPInterface(TestInterface1.class), loaders);
+                int providerCount = 0;
+                while (providers.hasMoreElements()) {
+                    assertNotNull(providers.nextElement());
+                    providerCount++;
+                }
+                assertEquals(label, size[0] * size[2], providerCount);
+            } finally {
+                classpath.dispose();
+            }
+        }
+    }
+
+    @Test
+    public void indexedResourcesMatchDiscoverResources() throws Exception {
+        SyntheticClasspath classpath = new SyntheticClasspath(TestInterface1.class, 12, 3, 2);
+        try {
+            ClassLoaders synthetic = classpath.getClassLoaders();
+            ClassLoaders app = ClassLoaders.getAppLoaders(TestInterface2.class, getClass(), false);
+
+            String[][] lookups = {
+                { SyntheticClasspath.RESOURCE, classpath.getServicesFileName(), "META-INF/" },
+                { "META-INF/services/" + TestInterface2.class.getName(),
+                  TestAll.class.getName().replace('.', '/') + ".class",
+                  "META-INF/MANIFEST.MF",
+                  "java/lang/Object.class",
+                  "no/such/resource" }
+            };
+            ClassLoaders[] loaderSets = { synthetic, app };
+
+            for (int set = 0; set < loaderSets.length; set++) {
+                DiscoverIndexedResources indexed = new DiscoverIndexedResources(loaderSets[set]);
+                DiscoverResources plain = new DiscoverResources(loaderSets[set]);
+                for (String name : lookups[set]) {
+                    assertEquals(name,
+                                 urlsOf(plain.findResources(name)),
+                                 urlsOf(indexed.findResources(name)));
+                }
+            }
+
+            DiscoverIndexedResources indexed = new DiscoverIndexedResources(synthetic);
+            assertEquals(12, urlsOf(indexed.findResources(SyntheticClasspath.RESOURCE)).size());
+            assertFalse(indexed.isStale());
+
+            File jar = new File(((URLClassLoader) classpath.getLeafLoader()).getURLs()[0].toURI());
+            assertTrue(jar.setLastModified(jar.lastModified() + 10000));
+            assertTrue(indexed.isStale());
+
+            indexed.rebuild();
+            assertFalse(indexed.isStale());
+        } finally {
+            classpath.dispose();
+        }
+    }
+
+    private static List<String> urlsOf(ResourceIterator resources) {
+        List<String> urls = new ArrayList<String>();
+        while (resources.hasNext()) {
+            urls.add(resources.nextResource().getResource().toExternalForm());
+        }
+        return urls;
+    }
+
+    @Test
+    public void delegationAwareResourcesAreFoundOnce() throws Exception {
+        SyntheticClasspath classpath = new SyntheticClasspath(TestInterface1.class, 12, 3, 2);
+        try {
+            List<ClassLoader> chain = classpath.getLoaders();
+            ClassLoaders loaders = new ClassLoaders();
+            loaders.put(chain.get(1), false);
+            loaders.put(chain.get(0), false);
+            loaders.put(classpath.getLeafLoader(), false);
+            loaders.put(chain.get(1), false);
+            loaders.put(getClass().getClassLoader(), false);
+
+            String[] names = {
+                SyntheticClasspath.RESOURCE,
+                classpath.getServicesFileName(),
+                TestAll.class.getName().replace('.', '/') + ".class",
+                "no/such/resource"
+            };
+            for (String name : names) {
+                DiscoverResources plain = new DiscoverResources(loaders);
+                DiscoverResources aware = new DiscoverResources(loaders);
+                aware.setDelegationAware(true);
+                assertTrue(aware.isDelegationAware());
+
+                List<String> expected = new ArrayList<String>(new LinkedHashSet<String>(urlsOf(plain.findResources(name))));
+                assertEquals(name, expected, urlsOf(aware.findResources(name)));
+            }
+
+            DiscoverResources plain = new DiscoverResources(loaders);
+            assertTrue(urlsOf(plain.findResources(SyntheticClasspath.RESOURCE)).size() > 12);
+        } finally {
+            classpath.dispose();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void parallelResourcesKeepLoaderOrder() throws Exception {
+        SyntheticClasspath classpath = new SyntheticClasspath(TestInterface1.class, 12, 3, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            ClassLoader slow = new ClassLoader(null) {
+                @Override
+                protected Enumeration<URL> findResources(String name) throws IOException {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted");
+                    }
+                    return super.findResources(name);
+                }
+            };
+
+            ClassLoaders loaders = new ClassLoaders();
+            for (ClassLoader loader : classpath.getLoaders()) {
+                loaders.put(loader, false);
+            }
+            loaders.put(getClass().getClassLoader(), false);
+
+            ClassLoaders withSlow = new ClassLoaders();
+            withSlow.put(classpath.getLoaders().get(0), false);
+            withSlow.put(slow, false);
+            for (int i = 1; i < classpath.getLoaders().size(); i++) {
+                withSlow.put(classpath.getLoaders().get(i), false);
+            }
+            withSlow.put(getClass().getClassLoader(), false);
+
+            String[] names = { SyntheticClasspath.RESOURCE, TestAll.class.getName().replace('.', '/') + ".class" };
+            for (String name : names) {
+                List<String> expected = urlsOf(new DiscoverResources(loaders).findResources(name));
+
+                DiscoverResources parallel = new DiscoverResources(loaders);
+                parallel.setExecutor(executor);
+                assertSame(executor, parallel.getExecutor());
+                assertEquals(name, expected, urlsOf(parallel.findResources(name)));
+
+                parallel = new DiscoverResources(withSlow);
+                parallel.setExecutor(executor);
+                parallel.setTimeout(100, TimeUnit.MILLISECONDS);
+                assertEquals(100, parallel.getTimeout(TimeUnit.MILLISECONDS));
+                assertEquals(name, expected, urlsOf(parallel.findResources(name)));
+            }
+        } finally {
+            release.countDown();
+            executor.shutdown();
+            classpath.dispose();
+        }
+    }
+
+    @Test
+    public void serviceIndexMatchesServicesFiles() throws Exception {
+        File dir = File.createTempFile("discovery-index", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        File indexFile = new File(dir, DiscoverNamesInIndex.INDEX_FILE);
+        try {
+            ServiceDiscoveryTask task = new ServiceDiscoveryTask();
+            task.setServiceName("META-INF/services/" + TestInterface2.class.getName());
+            task.setServiceNames(TestInterface2.class.getName() + ", " + TestInterface3.class.getName());
+            task.setIndexFile(indexFile);
+            task.execute();
+            assertTrue(indexFile.isFile());
+
+            ClassLoaders loaders = new ClassLoaders();
+            loaders.put(new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader()));
+
+            DiscoverNamesInIndex indexed = new DiscoverNamesInIndex(loaders);
+            DiscoverServiceNames plain = new DiscoverServiceNames(loaders);
+            assertTrue(indexed.isIndexed(TestInterface2.class.getName()));
+            assertTrue(indexed.isIndexed(TestInterface3.class.getName()));
+            assertFalse(indexed.isIndexed(Log.class.getName()));
+
+            for (String service : new String[] { TestInterface2.class.getName(),
+                                                 TestInterface3.class.getName(),
+                                                 Log.class.getName() }) {
+                List<String> expected = namesOf(plain.findResourceNames(service));
+                assertFalse(service, expected.isEmpty());
+                assertEquals(service, expected, namesOf(indexed.findResourceNames(service)));
+            }
+        } finally {
+            indexFile.delete();
+            indexFile.getParentFile().delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void propertiesFilesAreSharedUntilModified() throws Exception {
+        File dir = File.createTempFile("discovery-properties", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        File file = new File(dir, "cached.properties");
+        try {
+            writeProperties(file, "value=1", 1000000000L);
+
+            ClassLoaders loaders = new ClassLoaders();
+            loaders.put(new URLClassLoader(new URL[] { dir.toURI().toURL() }, getClass().getClassLoader()));
+            SPInterface<TestInterface1> spi = newSPInterface(TestInterface1.class);
+
+            PropertiesFileCache.clear();
+            Properties first = new PropertiesHolder("cached.properties").getProperties(spi, loaders);
+            assertEquals("1", first.getProperty("value"));
+            assertEquals(1, PropertiesFileCache.size());
+
+            // shared, but each holder gets its own copy
+            first.setProperty("value", "changed");
+            Properties second = new PropertiesHolder("cached.properties").getProperties(spi, loaders);
+            assertEquals("1", second.getProperty("value"));
+            assertEquals(1, PropertiesFileCache.size());
+
+            writeProperties(file, "value=2", 2000000000L);
+            assertEquals("2", new PropertiesHolder("cached.properties").getProperties(spi, loaders).getProperty("value"));
+
+            assertNull(new PropertiesHolder("missing.properties").getProperties(spi, loaders));
+        } finally {
+            PropertiesFileCache.clear();
+            file.delete();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void defaultClassesAreShared() {
+        final AtomicInteger loads = new AtomicInteger();
+        ClassLoader counting = new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (name.equals(TestImpl1_1.class.getName())) {
+                    loads.incrementAndGet();
+                }
+                return super.loadClass(name, resolve);
+            }
+        };
+        ClassLoaders loaders = new ClassLoaders();
+        loaders.put(counting);
+        SPInterface<TestInterface1> spi = newSPInterface(TestInterface1.class);
+
+        try {
+            assertEquals(TestImpl1_1.class,
+                         new DefaultClassHolder<TestInterface1>(TestImpl1_1.class.getName()).getDefaultClass(spi, loaders));
+            int loaded = loads.get();
+            assertTrue(loaded > 0);
+
+            assertEquals(TestImpl1_1.class,
+                         new DefaultClassHolder<TestInterface1>(TestImpl1_1.class.getName()).getDefaultClass(spi, loaders));
+            assertEquals(loaded, loads.get());
+
+            // verified per SPI
+            try {
+                new DefaultClassHolder<TestInterface2>(TestImpl1_1.class.getName())
+                    .getDefaultClass(newSPInterface(TestInterface2.class), loaders);
+                fail("TestImpl1_1 does not implement TestInterface2");
+            } catch (DiscoveryException e) {
+                // expected
+            }
+
+            DefaultClassHolder.releaseDefaultClasses(TestInterface1.class);
+            new DefaultClassHolder<TestInterface1>(TestImpl1_1.class.getName()).getDefaultClass(spi, loaders);
+            assertTrue(loads.get() > loaded);
+        } finally {
+            DefaultClassHolder.releaseDefaultClasses();
+        }
+    }
+
+    @Test(timeout = 10000)
+    @SuppressWarnings("deprecation") // SimpleLog
+    public void simpleLogWritesAsynchronously() throws Exception {
+        final org.apache.commons.discovery.log.SimpleLog log =
+            new org.apache.commons.discovery.log.SimpleLog(TestAll.class.getName());
+
+        org.apache.commons.discovery.log.SimpleLog.setAsynchronous(4,
+            org.apache.commons.discovery.log.SimpleLog.OVERFLOW_BLOCK);
+        try {
+            assertTrue(org.apache.commons.discovery.log.SimpleLog.isAsynchronous());
+
+            final int threads = 4;
+            final CountDownLatch done = new CountDownLatch(threads);
+            for (int i = 0; i < threads; i++) {
+                final int id = i;
+                new Thread() {
+                    @Override
+                    public void run() {
+                        for (int j = 0; j < 8; j++) {
+                            log.info("asynchronous message " + id + "." + j);
+                        }
+                        done.countDown();
+                    }
+                }.start();
+            }
+            done.await();
+
+            assertTrue(org.apache.commons.discovery.log.SimpleLog.flush());
+            assertEquals(0, org.apache.commons.discovery.log.SimpleLog.getDroppedCount());
+        } finally {
+            org.apache.commons.discovery.log.SimpleLog.setSynchronous();
+        }
+
+        assertFalse(org.apache.commons.discovery.log.SimpleLog.isAsynchronous());
+        assertTrue(org.apache.commons.discovery.log.SimpleLog.flush());
+        log.info("synchronous message");
+    }
+
+    private static void writeProperties(File file, String content, long lastModified) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("ISO-8859-1"));
+        } finally {
+            out.close();
+        }
+        assertTrue(file.setLastModified(lastModified));
+    }
+
+    private static List<String> namesOf(ResourceNameIterator names) {
+        List<String> list = new ArrayList<String>();
+        while (names.hasNext()) {
+            list.add(names.nextResourceName());
+        }
+        return list;
+    }
+
+    @Test
+    public void serviceNamesParserMatchesReadLine() throws Exception {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 3000; i++) {
+            longLine.append("x.y.Z").append(i);
+        }
+
+        String[] files = {
+            "",
+            "a.B",
+            "a.B\nc.D\n",
+            "# comment only\n\n   \n",
+            "  a.B  # trailing comment\r\n\tc.D\t\r\re.F#\n#g.H\n",
+            "a b.C\n\u00e9t\u00e9.Caf\u00e9 # non-ASCII\n\u4e2d.\u6587\r\n",
+            "\ufeffa.B\n",
+            longLine + "\n" + longLine + "#" + longLine + "\nlast.One"
+        };
+
+        for (String file : files) {
+            final byte[] bytes = file.getBytes("UTF-8");
+            List<String> expected = readLines(new ByteArrayInputStream(bytes));
+
+            assertEquals(expected, ServiceNamesParser.parse(new ByteArrayInputStream(bytes)));
+
+            // one byte at a time: lines split across reads
+            InputStream trickle = new ByteArrayInputStream(bytes) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, 1));
+                }
+            };
+            assertEquals(expected, ServiceNamesParser.parse(trickle));
+        }
+    }
+
+    /**
+     * Services file parsing, as done before ServiceNamesParser.
+     */
+    private static List<String> readLines(InputStream is) throws IOException {
+        List<String> results = new ArrayList<String>();
+        BufferedReader rd = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+        String serviceImplName;
+        while ((serviceImplName = rd.readLine()) != null) {
+            int idx = serviceImplName.indexOf('#');
+            if (idx >= 0) {
+                serviceImplName = serviceImplName.substring(0, idx);
+            }
+            serviceImplName = serviceImplName.trim();
+            if (serviceImplName.length() != 0) {
+                results.add(serviceImplName);
+            }
+        }
+        return results;
+    }
+
+    @Test
+    public void parsedServicesFilesAreReused() throws Exception {
+        SyntheticClasspath classpath = new SyntheticClasspath(TestInterface1.class, 6, 2, 3);
+        ServiceNamesCache.setEnabled(true);
+        try {
+            DiscoverServiceNames discover = new DiscoverServiceNames(classpath.getClassLoaders());
+            String service = TestInterface1.class.getName();
+
+            long hits = ServiceNamesCache.getHitCount();
+            long misses = ServiceNamesCache.getMissCount();
+
+            List<String> names = namesOf(discover.findResourceNames(service));
+            assertEquals(new HashSet<String>(classpath.getProviderNames()), new HashSet<String>(names));
+            assertEquals(hits, ServiceNamesCache.getHitCount());
+            assertEquals(misses + 6, ServiceNamesCache.getMissCount());
+
+            assertEquals(names, namesOf(discover.findResourceNames(service)));
+            assertEquals(hits + 6, ServiceNamesCache.getHitCount());
+            assertEquals(misses + 6, ServiceNamesCache.getMissCount());
+
+            // a modified jar is parsed again
+            File jar = new File(((URLClassLoader) classpath.getLeafLoader()).getURLs()[0].toURI());
+            assertTrue(jar.setLastModified(jar.lastModified() + 10000));
+            assertEquals(names, namesOf(discover.findResourceNames(service)));
+            assertEquals(hits + 11, ServiceNamesCache.getHitCount());
+            assertEquals(misses + 7, ServiceNamesCache.getMissCount());
+
+            ServiceNamesCache.setMaximumSize(4);
+            assertEquals(4, ServiceNamesCache.size());
+            assertEquals(names, namesOf(discover.findResourceNames(service)));
+            assertEquals(4, ServiceNamesCache.size());
+        } finally {
+            ServiceNamesCache.setMaximumSize(ServiceNamesCache.DEFAULT_MAXIMUM_SIZE);
+            ServiceNamesCache.setEnabled(false);
+            classpath.dispose();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void urlsAreComparedWithoutNetworkAccess() throws Exception {
+        final AtomicInteger networkCalls = new AtomicInteger();
+        final URLStreamHandler handler = new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL u) throws IOException {
+                throw new IOException("offline");
+            }
+
+            @Override
+            protected synchronized InetAddress getHostAddress(URL u) {
+                networkCalls.incrementAndGet();
+                try {
+                    Thread.sleep(60000); // a DNS lookup that never answers
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return null;
+            }
+
+            @Override
+            protected int hashCode(URL u) {
+                networkCalls.incrementAndGet();
+                return super.hashCode(u);
+            }
+
+            @Override
+            protected boolean equals(URL u1, URL u2) {
+                networkCalls.incrementAndGet();
+                return super.equals(u1, u2);
+            }
+        };
+
+        // remote codebases on a host which does not resolve
+        final URL remote = new URL(null, "http://codebase.invalid/lib/provider.jar", handler);
+        final URL sameRemote = new URL(null, "HTTP://CODEBASE.invalid/lib/provider.jar", handler);
+        ClassLoader remoteLoader = new ClassLoader(getClass().getClassLoader()) {
+            @Override
+            public URL getResource(String name) {
+                return remote;
+            }
+
+            @Override
+            public Enumeration<URL> getResources(String name) {
+                List<URL> urls = new ArrayList<URL>();
+                urls.add(remote);
+                urls.add(sameRemote);
+                urls.add(remote);
+                return Collections.enumeration(urls);
+            }
+        };
+
+        ClassLoaders loaders = new ClassLoaders();
+        loaders.put(remoteLoader);
+        loaders.put(remoteLoader);
+
+        ResourceClassIterator<TestInterface1> classes =
+            new DiscoverClasses<TestInterface1>(loaders).findResourceClasses(TestImpl1_1.class.getName());
+        assertTrue(classes.hasNext());
+        assertSame(remote, classes.nextResourceClass().getResource());
+        assertFalse(classes.hasNext());
+
+        Enumeration<URL> resources = JDKHooks.getJDKHooks().getResources(remoteLoader, "provider");
+        assertSame(remote, resources.nextElement());
+        assertFalse(resources.hasMoreElements());
+
+        assertEquals(2, urlsOf(new DiscoverResources(loaders).findResources("provider")).size());
+
+        assertEquals(0, networkCalls.get());
+    }
+
     @Test
     public void instantiateViaDiscoverClass() throws Exception {
         ClassLoaders loaders = ClassLoaders.getAppLoaders(TestInterface2.class, getClass(), false);